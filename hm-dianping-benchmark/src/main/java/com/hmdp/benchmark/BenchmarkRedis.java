@@ -0,0 +1,101 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.config.RedisConfig;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.ValueEncoding;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试使用的redis连接, 不启动Spring容器, 直接创建连接工厂和RedisTemplate
+ * <p>
+ * 连接参数通过系统属性指定: -Dredis.host=127.0.0.1 -Dredis.port=6379 -Dredis.database=15,
+ * 默认使用15号库, 和应用使用的12号库分开, 测试结束时会删除测试写入的key以及stream.orders
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+final class BenchmarkRedis {
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    final StringRedisTemplate stringRedisTemplate;
+
+    final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    BenchmarkRedis() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"),
+                Integer.getInteger("redis.port", 6379));
+        configuration.setDatabase(Integer.getInteger("redis.database", 15));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        byteRedisTemplate = new RedisConfig().byteRedisTemplate(connectionFactory);
+        byteRedisTemplate.afterPropertiesSet();
+    }
+
+    /**
+     * 使用SCAN删除匹配的key, 不使用KEYS, 避免阻塞redis
+     *
+     * @param pattern key的匹配模式
+     */
+    void deleteByPattern(String pattern) {
+        List<String> keys = new ArrayList<>();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+                cursor.forEachRemaining(key -> keys.add(new String(key, StandardCharsets.UTF_8)));
+            }
+            return null;
+        });
+        for (int i = 0; i < keys.size(); i += 1000) {
+            stringRedisTemplate.delete(keys.subList(i, Math.min(i + 1000, keys.size())));
+        }
+    }
+
+    /**
+     * MEMORY USAGE key SAMPLES 0, 统计全部元素
+     *
+     * @param key key
+     * @return 占用的字节数, key不存在时返回0
+     */
+    @SuppressWarnings("unchecked")
+    long memoryUsage(String key) {
+        Long bytes = stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            RedisClusterAsyncCommands<byte[], byte[]> commands =
+                    (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            try {
+                return commands.memoryUsage(key.getBytes(StandardCharsets.UTF_8)).get();
+            } catch (Exception e) {
+                throw new IllegalStateException("MEMORY USAGE失败, key=" + key, e);
+            }
+        });
+        return bytes == null ? 0 : bytes;
+    }
+
+    /**
+     * OBJECT ENCODING key
+     *
+     * @param key key
+     * @return 编码, key不存在时返回-
+     */
+    String encoding(String key) {
+        ValueEncoding encoding = stringRedisTemplate.execute(
+                (RedisCallback<ValueEncoding>) connection -> connection.keyCommands().encodingOf(key.getBytes(StandardCharsets.UTF_8)));
+        return encoding == null ? "-" : encoding.raw();
+    }
+
+    void close() {
+        connectionFactory.destroy();
+    }
+}
@@ -0,0 +1,37 @@
+package com.hmdp.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口
+ * <p>
+ * TODO:
+ *      - 不带参数运行: 执行全部基准测试, 结果以json格式写入jmh-result.json(可以通过-Djmh.result指定), 方便不同版本之间对比
+ *      - 带参数运行: 参数原样交给JMH, 例如 java -jar benchmarks.jar CacheClientBenchmark -rf json -rff cache.json
+ *      - 除了CacheCodecBenchmark和ShopJsonBenchmark, 其他测试都需要本地redis, 连接参数见BenchmarkRedis
+ *      - QuotaMemoryReport、FeedMemoryReport不是JMH测试, 单独运行: java -cp benchmarks.jar com.hmdp.benchmark.QuotaMemoryReport
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            Main.main(args);
+            return;
+        }
+        CacheCodecBenchmark.printSizes();
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + ".*")
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("jmh.result", "jmh-result.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,157 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.config.ExecutorConfig;
+import com.hmdp.config.RedisConfig;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BloomFilterClient;
+import com.hmdp.utils.CacheClient;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.LOCAL_CACHE_CAPACITY;
+
+/**
+ * CacheClient各个查询路径的吞吐量和延迟
+ * <p>
+ * TODO:
+ *      - localHit: 同一个key反复查询, 每次都命中本地缓存
+ *      - redisHit: 循环查询的key数量远大于本地缓存容量, 本地缓存基本不命中, 每次都要读redis并解码
+ *      - miss: 每次查询一个新的id, 读redis未命中, 查询"数据库"(直接返回样例数据)再写回redis
+ *      - logicalExpireHit / earlyRefreshHit: 逻辑过期和概率提前刷新, 数据都未过期
+ *      - logicalExpireStale: 数据已经逻辑过期, 返回旧数据并尝试异步重建
+ *      - 布隆过滤器不在这里测试, 没有绑定过滤器的key前缀直接放行
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CacheClientBenchmark {
+
+    private static final String KEY_PREFIX = "bench:cache:";
+
+    private static final String LOGICAL_KEY_PREFIX = "bench:cache:logical:";
+
+    private static final String EARLY_KEY_PREFIX = "bench:cache:early:";
+
+    private static final String STALE_KEY_PREFIX = "bench:cache:stale:";
+
+    private static final String LOCK_KEY_PREFIX = "bench:lock:";
+
+    /**
+     * 预先写入的key数量, 是本地缓存容量的8倍
+     */
+    private static final int KEY_COUNT = 8 * LOCAL_CACHE_CAPACITY;
+
+    @Param({"binary", "json"})
+    private String codec;
+
+    private BenchmarkRedis redis;
+
+    private CacheClient cacheClient;
+
+    private BloomFilterClient bloomFilterClient;
+
+    private ThreadPoolTaskExecutor cacheRebuildExecutor;
+
+    /**
+     * 未命中的key前缀, 每次运行都不一样, 保证上一次运行写入的数据不会被命中
+     */
+    private String missKeyPrefix;
+
+    private final AtomicLong missId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        redis = new BenchmarkRedis();
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        // 不初始化布隆过滤器, 所有key前缀都直接放行
+        ExecutorConfig executorConfig = new ExecutorConfig();
+        bloomFilterClient = new BloomFilterClient(redis.stringRedisTemplate, container, null, null, null,
+                executorConfig.bloomFilterScheduler());
+        cacheRebuildExecutor = executorConfig.cacheRebuildExecutor(10, 1000);
+        cacheRebuildExecutor.initialize();
+        cacheClient = new CacheClient(redis.stringRedisTemplate, container, bloomFilterClient,
+                redis.byteRedisTemplate, new RedisConfig().cacheCodec(codec, 512), cacheRebuildExecutor);
+        for (long id = 0; id < KEY_COUNT; id++) {
+            Shop shop = loadShop(id);
+            cacheClient.set(KEY_PREFIX + id, shop, 1L, TimeUnit.HOURS);
+            cacheClient.setWithLogicalExpire(LOGICAL_KEY_PREFIX + id, shop, 1L, TimeUnit.HOURS);
+            cacheClient.setWithEarlyRefresh(EARLY_KEY_PREFIX + id, shop, 20L, 1L, TimeUnit.HOURS);
+            cacheClient.setWithLogicalExpire(STALE_KEY_PREFIX + id, shop, 0L, TimeUnit.SECONDS);
+        }
+        missKeyPrefix = KEY_PREFIX + "miss:" + System.currentTimeMillis() + ":";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cacheRebuildExecutor.shutdown();
+        bloomFilterClient.shutdown();
+        redis.deleteByPattern("bench:cache:*");
+        redis.deleteByPattern(LOCK_KEY_PREFIX + "*");
+        redis.close();
+    }
+
+    /**
+     * 每个线程按顺序循环访问预先写入的key, 起点随机, 避免多个线程一直访问同一个key
+     */
+    @State(Scope.Thread)
+    public static class KeyCursor {
+        private long id = ThreadLocalRandom.current().nextInt(KEY_COUNT);
+
+        long next() {
+            id = (id + 1) % KEY_COUNT;
+            return id;
+        }
+    }
+
+    @Benchmark
+    public Shop localHit() {
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, 0L, Shop.class, this::loadShop, 1L, TimeUnit.HOURS);
+    }
+
+    @Benchmark
+    public Shop redisHit(KeyCursor cursor) {
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, cursor.next(), Shop.class, this::loadShop, 1L, TimeUnit.HOURS);
+    }
+
+    @Benchmark
+    public Shop miss() {
+        return cacheClient.queryWithPassThrough(missKeyPrefix, missId.incrementAndGet(), Shop.class, this::loadShop,
+                1L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop logicalExpireHit(KeyCursor cursor) {
+        return cacheClient.queryWithLogicalExpire(LOGICAL_KEY_PREFIX, LOCK_KEY_PREFIX, cursor.next(), Shop.class,
+                this::loadShop, 1L, TimeUnit.HOURS);
+    }
+
+    @Benchmark
+    public Shop earlyRefreshHit(KeyCursor cursor) {
+        return cacheClient.queryWithEarlyRefresh(EARLY_KEY_PREFIX, LOCK_KEY_PREFIX, cursor.next(), Shop.class,
+                this::loadShop, 1L, TimeUnit.HOURS);
+    }
+
+    @Benchmark
+    public Shop logicalExpireStale(KeyCursor cursor) {
+        // 重建时逻辑过期时间仍然为0, 数据一直处于过期状态
+        return cacheClient.queryWithLogicalExpire(STALE_KEY_PREFIX, LOCK_KEY_PREFIX, cursor.next(), Shop.class,
+                this::loadShop, 0L, TimeUnit.SECONDS);
+    }
+
+    private Shop loadShop(Long id) {
+        return Samples.shop().setId(id);
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编解码基准测试, 对比json和二进制两种格式的编码后大小和编解码耗时
+ * <p>
+ * 不需要redis, 编码后的字节数由BenchmarkRunner在测试开始前打印
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheCodecBenchmark {
+
+    @Param({"shop", "blog", "user"})
+    private String type;
+
+    @Param({"json", "binary"})
+    private String codecName;
+
+    private CacheCodec codec;
+
+    private Object value;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        codec = "json".equals(codecName) ? new JsonCacheCodec() : new BinaryCacheCodec(512);
+        value = Samples.of(type);
+        bytes = codec.encode(value);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return codec.decode(bytes, value.getClass());
+    }
+
+    /**
+     * 打印三种类型在两种格式下编码后的字节数
+     */
+    static void printSizes() {
+        CacheCodec json = new JsonCacheCodec();
+        CacheCodec binary = new BinaryCacheCodec(512);
+        for (String type : new String[]{"shop", "blog", "user"}) {
+            Object value = Samples.of(type);
+            System.out.printf("%-5s json=%dB binary=%dB%n", type, json.encode(value).length, binary.encode(value).length);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.SystemConstants;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+
+/**
+ * 收件箱归档前后的内存报告
+ * <p>
+ * TODO:
+ *      - 运行: java -cp benchmarks.jar com.hmdp.benchmark.FeedMemoryReport [每个收件箱的条数...], 默认 100 1000 5000 20000.
+ *      - 每个条数写入feed.users(默认100)个收件箱, member为随机的笔记id, score为递增的毫秒时间戳, 和推送写入的一样.
+ *        用MEMORY USAGE统计归档前的内存和编码, 再用feed_trim.lua(和FeedArchiver相同)删除最早的笔记, 只保留inbox-capacity条,
+ *        输出归档后的内存和编码.
+ *      - 超过zset-max-listpack-entries(默认128)的zset是skiplist编码, 每条笔记一个跳表节点 + dict条目;
+ *        归档之后条数不超过128时脚本重写收件箱, 变回listpack, 笔记id和时间戳连续存放.
+ *      - 上限通过-Dfeed.inbox-capacity指定, 和hmdp.feed.inbox-capacity一致, 默认128. 需要本地redis, 连接参数见BenchmarkRedis,
+ *        结束时删除写入的key.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+public class FeedMemoryReport {
+
+    private static final String REPORT_PREFIX = FEED_KEY + "report:";
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_FEED_TRIM_FILENAME));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    public static void main(String[] args) {
+        int capacity = Integer.getInteger("feed.inbox-capacity", 128);
+        int users = Integer.getInteger("feed.users", 100);
+        int[] sizes = args.length > 0 ? parse(args) : new int[]{100, 1000, 5000, 20000};
+        BenchmarkRedis redis = new BenchmarkRedis();
+        try {
+            System.out.printf("%-10s %-32s %-32s %s%n", "entries", "before (per inbox)", "after (capacity " + capacity + ")", "saved");
+            for (int size : sizes) {
+                report(redis, size, users, capacity);
+            }
+        } finally {
+            redis.deleteByPattern(REPORT_PREFIX + "*");
+            redis.close();
+        }
+    }
+
+    private static void report(BenchmarkRedis redis, int size, int users, int capacity) {
+        Random random = new Random(size);
+        List<String> keys = new ArrayList<>(users);
+        for (int u = 0; u < users; u++) {
+            String key = REPORT_PREFIX + size + ":" + u;
+            keys.add(key);
+            long ts = System.currentTimeMillis() - size * 60000L;
+            long[] scores = new long[size];
+            String[] members = new String[size];
+            for (int i = 0; i < size; i++) {
+                ts += 1 + random.nextInt(120000);
+                scores[i] = ts;
+                members[i] = String.valueOf(1 + random.nextInt(10000000));
+            }
+            redis.stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < size; i++) {
+                    connection.zSetCommands().zAdd(bytes(key), scores[i], bytes(members[i]));
+                }
+                return null;
+            });
+        }
+
+        long before = 0;
+        for (String key : keys) {
+            before += redis.memoryUsage(key);
+        }
+        String beforeEncoding = redis.encoding(keys.get(0));
+
+        // 和FeedArchiver一样: 取出最早的笔记, 用脚本删除
+        for (String key : keys) {
+            Long card = redis.stringRedisTemplate.opsForZSet().zCard(key);
+            if (card == null || card <= capacity) {
+                continue;
+            }
+            List<String> args = new ArrayList<>();
+            args.add(String.valueOf(capacity));
+            args.addAll(redis.stringRedisTemplate.opsForZSet().range(key, 0, card - capacity - 1));
+            redis.stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(key), args.toArray());
+        }
+        long after = 0;
+        for (String key : keys) {
+            after += redis.memoryUsage(key);
+        }
+
+        System.out.printf("%-10d %-32s %-32s %.0f%%%n", size,
+                String.format("%.0fB %.1fB/entry %s", (double) before / users, (double) before / users / size, beforeEncoding),
+                String.format("%.0fB %s", (double) after / users, redis.encoding(keys.get(0))),
+                100.0 * (before - after) / before);
+        redis.stringRedisTemplate.delete(keys);
+    }
+
+    private static int[] parse(String[] args) {
+        int[] sizes = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        return sizes;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
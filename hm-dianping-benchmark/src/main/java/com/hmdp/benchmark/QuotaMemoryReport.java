@@ -0,0 +1,131 @@
+package com.hmdp.benchmark;
+
+import org.springframework.data.redis.core.RedisCallback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 每人限购计数的内存报告: 下单用户集合(SET) 和 按用户id分桶的hash
+ * <p>
+ * TODO:
+ *      - 运行: java -cp benchmarks.jar com.hmdp.benchmark.QuotaMemoryReport [用户数...], 默认 1000 10000 100000 1000000.
+ *      - 每个用户数随机生成不重复的用户id, 分别写入一个SET(和seckill:order:{voucherId}相同) 和 ceil(n / 桶大小)个hash
+ *        (和seckill:quota:{voucherId}:{bucket}相同, value为已购数量), 用MEMORY USAGE统计全部key的内存, 输出总字节数、每个用户的字节数和编码.
+ *      - SET的元素都是整数并且不超过set-max-intset-entries(默认512)时使用intset编码, 超过之后变成hashtable, 每个用户一个dictEntry + sds;
+ *        分桶之后每个hash只有几十个用户, 使用listpack(ziplist)编码, 用户id和数量紧凑地连续存放.
+ *      - 桶大小通过-Dquota.bucket-users指定, 和hmdp.seckill.quota-bucket-users一致, 默认64. 需要本地redis, 连接参数见BenchmarkRedis,
+ *        结束时删除写入的key.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+public class QuotaMemoryReport {
+
+    private static final String REPORT_ID = "report";
+
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+        int bucketUsers = Integer.getInteger("quota.bucket-users", 64);
+        long[] sizes = args.length > 0 ? parse(args) : new long[]{1000L, 10000L, 100000L, 1000000L};
+        BenchmarkRedis redis = new BenchmarkRedis();
+        try {
+            System.out.printf("%-8s %-36s %-44s%n", "users", "set", "quota hash (" + bucketUsers + " users/bucket)");
+            for (long n : sizes) {
+                report(redis, (int) n, bucketUsers);
+            }
+        } finally {
+            redis.deleteByPattern(SECKILL_ORDER_KEY + REPORT_ID + "*");
+            redis.deleteByPattern(SECKILL_QUOTA_KEY + REPORT_ID + "*");
+            redis.close();
+        }
+    }
+
+    private static void report(BenchmarkRedis redis, int n, int bucketUsers) {
+        List<String> userIds = randomUserIds(n);
+        int buckets = Math.max(1, (n + bucketUsers - 1) / bucketUsers);
+        String setKey = SECKILL_ORDER_KEY + REPORT_ID + DELIMITER + n;
+        String quotaPrefix = SECKILL_QUOTA_KEY + REPORT_ID + DELIMITER + n + DELIMITER;
+
+        // 1. 写入SET, 每个SADD一批用户
+        for (int i = 0; i < n; i += BATCH_SIZE) {
+            List<String> batch = userIds.subList(i, Math.min(i + BATCH_SIZE, n));
+            redis.stringRedisTemplate.opsForSet().add(setKey, batch.toArray(new String[0]));
+        }
+        // 2. 写入分桶的hash, 桶号和seckill.lua一样是 userId % buckets
+        List<Map<String, String>> hashes = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            hashes.add(new HashMap<>(bucketUsers * 2));
+        }
+        for (String userId : userIds) {
+            hashes.get((int) (Long.parseLong(userId) % buckets)).put(userId, "1");
+        }
+        redis.stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int b = 0; b < buckets; b++) {
+                if (hashes.get(b).isEmpty()) {
+                    continue;
+                }
+                Map<byte[], byte[]> fields = new HashMap<>(hashes.get(b).size() * 2);
+                hashes.get(b).forEach((k, v) -> fields.put(bytes(k), bytes(v)));
+                connection.hashCommands().hMSet(bytes(quotaPrefix + b), fields);
+            }
+            return null;
+        });
+
+        // 3. 统计内存
+        List<String> quotaKeys = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            if (!hashes.get(b).isEmpty()) {
+                quotaKeys.add(quotaPrefix + b);
+            }
+        }
+        long setBytes = redis.memoryUsage(setKey);
+        long quotaBytes = 0;
+        for (String key : quotaKeys) {
+            quotaBytes += redis.memoryUsage(key);
+        }
+        System.out.printf("%-8d %-36s %-44s%n", n,
+                String.format("%dB %.1fB/user %s", setBytes, (double) setBytes / n, redis.encoding(setKey)),
+                String.format("%dB %.1fB/user %s x%d (%.0f%%)", quotaBytes, (double) quotaBytes / n,
+                        redis.encoding(quotaKeys.get(0)), quotaKeys.size(), 100.0 * quotaBytes / setBytes));
+
+        redis.stringRedisTemplate.delete(setKey);
+        for (int i = 0; i < quotaKeys.size(); i += BATCH_SIZE) {
+            redis.stringRedisTemplate.delete(quotaKeys.subList(i, Math.min(i + BATCH_SIZE, quotaKeys.size())));
+        }
+    }
+
+    /**
+     * 不重复的随机用户id, 分布在 [1, 10n] 中, 和真实的用户表一样有空洞
+     */
+    private static List<String> randomUserIds(int n) {
+        Random random = new Random(n);
+        Set<String> ids = new LinkedHashSet<>(n * 2);
+        while (ids.size() < n) {
+            ids.add(String.valueOf(1 + (long) (random.nextDouble() * 10L * n)));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private static long[] parse(String[] args) {
+        long[] sizes = new long[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Long.parseLong(args[i]);
+        }
+        return sizes;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.config.ExecutorConfig;
+import com.hmdp.utils.RedisIdTool;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.INCREMENT;
+
+/**
+ * RedisIdTool生成id的吞吐量和延迟, segmentSize为0时每次INCR, 否则使用号段模式
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RedisIdToolBenchmark {
+
+    private static final String KEY_PREFIX = "bench:order:";
+
+    @Param({"0", "1000"})
+    private int segmentSize;
+
+    private BenchmarkRedis redis;
+
+    private RedisIdTool redisIdTool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        redis = new BenchmarkRedis();
+        ThreadPoolTaskExecutor idSegmentExecutor = new ExecutorConfig().idSegmentExecutor();
+        idSegmentExecutor.initialize();
+        redisIdTool = new RedisIdTool(redis.stringRedisTemplate, segmentSize, idSegmentExecutor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redisIdTool.shutdown();
+        redis.deleteByPattern(INCREMENT + KEY_PREFIX + "*");
+        redis.close();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdTool.nextId(KEY_PREFIX);
+    }
+}
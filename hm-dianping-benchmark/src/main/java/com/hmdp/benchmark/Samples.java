@@ -0,0 +1,73 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+
+import java.time.LocalDateTime;
+
+/**
+ * 基准测试使用的样例数据
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+final class Samples {
+
+    private Samples() {
+    }
+
+    static Object of(String type) {
+        switch (type) {
+            case "shop":
+                return shop();
+            case "blog":
+                return blog();
+            default:
+                return user();
+        }
+    }
+
+    static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("102茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+
+    static Blog blog() {
+        Blog blog = new Blog();
+        blog.setId(4L);
+        blog.setShopId(4L);
+        blog.setUserId(2L);
+        blog.setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩");
+        blog.setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg");
+        blog.setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>男朋友给不了的浪漫要学会自己给🍒<br/>无法重来的一生·尽量快乐.");
+        blog.setLiked(12);
+        blog.setComments(104);
+        blog.setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1));
+        blog.setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+        return blog;
+    }
+
+    static UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_slxaxy2au9f3tanffaxr");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        return user;
+    }
+}
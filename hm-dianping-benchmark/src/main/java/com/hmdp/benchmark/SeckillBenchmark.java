@@ -0,0 +1,132 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdTool;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SystemConstants;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀下单的redis部分, 和VoucherOrderServiceImpl.secKillVoucher一样: 先生成订单id, 再执行seckill.lua
+ * <p>
+ * TODO:
+ *      - purchase: 库存充足, 每次都是新用户, 脚本完整执行扣库存、记录用户、写入stream
+ *      - soldOut: 库存为0, 脚本直接返回1
+ *      - stockShards大于1时使用分片库存, 和seckill.lua单个库存key对比
+ *      - 每轮测试之前重置库存, 删除下单用户集合和stream.orders
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SeckillBenchmark {
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_FILENAME));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final long VOUCHER_ID = 900001L;
+
+    private static final long SOLD_OUT_VOUCHER_ID = 900002L;
+
+    /**
+     * 订单id的业务前缀, 不使用SECKILL_ORDER, 避免清理时删掉真实的订单计数
+     */
+    private static final String ID_KEY_PREFIX = "bench:seckill:";
+
+    @Param({"1", "8"})
+    private int stockShards;
+
+    private BenchmarkRedis redis;
+
+    private RedisIdTool redisIdTool;
+
+    private SeckillStockClient seckillStockClient;
+
+    private final AtomicLong userId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        redis = new BenchmarkRedis();
+        redisIdTool = new RedisIdTool(redis.stringRedisTemplate);
+        // 只写入订单状态, 不需要订阅
+        SeckillOrderStatus seckillOrderStatus = new SeckillOrderStatus(redis.stringRedisTemplate, new RedisMessageListenerContainer());
+        seckillStockClient = new SeckillStockClient(redis.stringRedisTemplate, seckillOrderStatus, null, null);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStock() {
+        deleteKeys();
+        if (stockShards > 1) {
+            seckillStockClient.init(VOUCHER_ID, Integer.MAX_VALUE, stockShards);
+            seckillStockClient.init(SOLD_OUT_VOUCHER_ID, 0, stockShards);
+        } else {
+            redis.stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + VOUCHER_ID, String.valueOf(Integer.MAX_VALUE));
+            redis.stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + SOLD_OUT_VOUCHER_ID, "0");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redisIdTool.shutdown();
+        deleteKeys();
+        redis.deleteByPattern(INCREMENT + ID_KEY_PREFIX + "*");
+        redis.close();
+    }
+
+    @Benchmark
+    public Long purchase() {
+        return secKill(VOUCHER_ID);
+    }
+
+    @Benchmark
+    public Long soldOut() {
+        return secKill(SOLD_OUT_VOUCHER_ID);
+    }
+
+    private Long secKill(long voucherId) {
+        long orderId = redisIdTool.nextId(ID_KEY_PREFIX);
+        long user = userId.incrementAndGet();
+        if (stockShards > 1) {
+            return seckillStockClient.seckill(voucherId, user, orderId);
+        }
+        return redis.stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Collections.emptyList(),
+                String.valueOf(voucherId), String.valueOf(user), String.valueOf(orderId)
+        );
+    }
+
+    private void deleteKeys() {
+        for (long voucherId : new long[]{VOUCHER_ID, SOLD_OUT_VOUCHER_ID}) {
+            redis.stringRedisTemplate.delete(SECKILL_STOCK_KEY + voucherId);
+            redis.stringRedisTemplate.delete(SECKILL_ORDER_KEY + voucherId);
+            redis.stringRedisTemplate.delete(SECKILL_SHARDS_KEY + voucherId);
+            for (int i = 0; i < stockShards; i++) {
+                redis.stringRedisTemplate.delete(SeckillStockClient.stockKey(voucherId, i));
+                redis.stringRedisTemplate.delete(SeckillStockClient.orderKey(voucherId, i));
+            }
+        }
+        redis.stringRedisTemplate.delete(SECKILL_ORDER_STREAM);
+        redis.deleteByPattern(SECKILL_ORDER_STATUS_KEY + "*");
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shop的json序列化和反序列化, 包括逻辑过期时先解析RedisData再转换为Shop的两次解析
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShopJsonBenchmark {
+
+    private Shop shop;
+
+    private String json;
+
+    private String logicalJson;
+
+    @Setup
+    public void setup() {
+        shop = Samples.shop();
+        json = JSONUtil.toJsonStr(shop);
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusHours(1));
+        logicalJson = JSONUtil.toJsonStr(redisData);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public Shop fromJson() {
+        return JSONUtil.toBean(json, Shop.class);
+    }
+
+    @Benchmark
+    public Shop fromLogicalJson() {
+        RedisData redisData = JSONUtil.toBean(logicalJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+    }
+}
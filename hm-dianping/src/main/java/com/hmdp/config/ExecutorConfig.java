@@ -0,0 +1,149 @@
+package com.hmdp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * 后台线程池, 由Spring管理生命周期
+ * <p>
+ * TODO:
+ *      - 之前的线程池都是static的Executors.newFixedThreadPool, 无界队列, 线程名称是pool-N-thread-M, 应用关闭时也不会关闭.
+ *      - 这里的线程池都是有界队列、线程有名称前缀, 容器关闭时等待已经提交的任务执行完(最多await-termination秒)再关闭.
+ *      - cacheRebuildExecutor: 逻辑过期缓存的异步重建, 队列满时抛出TaskRejectedException, 调用者释放重建锁并返回旧数据.
+ *      - feedFanoutExecutor: 笔记推送任务stream的消费者线程, 见FeedFanoutWorker.
+ *      - seckillOrderExecutor: 秒杀订单stream的消费者线程, 每个线程一直循环读取, 不需要队列. 停止读取和处理完最后一批
+ *        由VoucherOrderServiceImpl在容器关闭时(SmartLifecycle.stop)完成, 这里只是兜底.
+ *      - idSegmentExecutor: RedisIdTool异步预取号段.
+ *      - xxxScheduler: 各个组件的定时任务, 每个组件一个单线程的ThreadPoolTaskScheduler, 互不阻塞. 关闭时不再执行周期任务,
+ *        等待正在执行的一次完成. 使用者在自己的@PreDestroy中先调用shutdown, 保证定时任务在它依赖的redis连接关闭之前停止.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Configuration
+public class ExecutorConfig {
+
+    // 等待任务执行完的最长时间(秒)
+    @Value("${hmdp.executor.await-termination:30}")
+    private int awaitTermination = 30;
+
+    /**
+     * 缓存重建线程池
+     *
+     * @param poolSize      线程数
+     * @param queueCapacity 队列容量
+     */
+    @Bean
+    public ThreadPoolTaskExecutor cacheRebuildExecutor(@Value("${hmdp.executor.cache-rebuild.pool-size:10}") int poolSize,
+                                                       @Value("${hmdp.executor.cache-rebuild.queue-capacity:1000}") int queueCapacity) {
+        return executor("cache-rebuild-", poolSize, queueCapacity);
+    }
+
+    /**
+     * 笔记推送任务消费者线程池, 线程数和消费者数相同
+     *
+     * @param consumers 消费者数
+     */
+    @Bean
+    public ThreadPoolTaskExecutor feedFanoutExecutor(@Value("${hmdp.feed.fanout-consumers:1}") int consumers) {
+        return executor("feed-fanout-", Math.max(1, consumers), 0);
+    }
+
+    /**
+     * 秒杀订单消费者线程池, 线程数和消费者数相同
+     *
+     * @param consumers 消费者数
+     */
+    @Bean
+    public ThreadPoolTaskExecutor seckillOrderExecutor(@Value("${hmdp.seckill.order-consumers:2}") int consumers) {
+        return executor("seckill-order-", Math.max(1, consumers), 0);
+    }
+
+    /**
+     * 号段预取线程, 每个业务前缀同时最多一个预取任务
+     */
+    @Bean
+    public ThreadPoolTaskExecutor idSegmentExecutor() {
+        return executor("id-segment-", 1, 100);
+    }
+
+    /**
+     * 布隆过滤器加载和定时重新加载
+     */
+    @Bean
+    public ThreadPoolTaskScheduler bloomFilterScheduler() {
+        return scheduler("bloom-filter-");
+    }
+
+    /**
+     * 点赞数定时写入数据库
+     */
+    @Bean
+    public ThreadPoolTaskScheduler likeFlushScheduler() {
+        return scheduler("like-flush-");
+    }
+
+    /**
+     * 收件箱定时归档
+     */
+    @Bean
+    public ThreadPoolTaskScheduler feedArchiveScheduler() {
+        return scheduler("feed-archive-");
+    }
+
+    /**
+     * 秒杀订单stream的pending-list回收
+     */
+    @Bean
+    public ThreadPoolTaskScheduler seckillReclaimScheduler() {
+        return scheduler("seckill-reclaim-");
+    }
+
+    /**
+     * 秒杀准入控制的积压采样
+     */
+    @Bean
+    public ThreadPoolTaskScheduler seckillAdmissionScheduler() {
+        return scheduler("seckill-admission-");
+    }
+
+    /**
+     * 秒杀库存对账
+     */
+    @Bean
+    public ThreadPoolTaskScheduler seckillReconcileScheduler() {
+        return scheduler("seckill-reconcile-");
+    }
+
+    /**
+     * 库存租约的心跳和归还
+     */
+    @Bean
+    public ThreadPoolTaskScheduler seckillLeaseScheduler() {
+        return scheduler("seckill-lease-");
+    }
+
+    private ThreadPoolTaskExecutor executor(String threadNamePrefix, int poolSize, int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(awaitTermination);
+        return executor;
+    }
+
+    private ThreadPoolTaskScheduler scheduler(String threadNamePrefix) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix(threadNamePrefix);
+        scheduler.setPoolSize(1);
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(awaitTermination);
+        return scheduler;
+    }
+}
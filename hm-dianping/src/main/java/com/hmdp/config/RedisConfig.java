@@ -0,0 +1,51 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+// Redis相关的配置类
+@Configuration
+public class RedisConfig {
+
+    /*
+        redis发布订阅(pub/sub)的监听容器, SpringBoot不会自动创建, 这里手动注入到Spring容器中
+        各个组件通过addMessageListener注册自己关心的频道即可, 所有频道共用同一条订阅连接
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
+    /*
+        key为字符串, value为原始字节数组的RedisTemplate, 缓存值由CacheCodec编码之后直接存取, 不再经过字符串转换
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.setHashKeySerializer(RedisSerializer.string());
+        template.setHashValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /*
+        缓存值的编码方式, 通过hmdp.cache.codec配置, 默认二进制
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:binary}") String codec,
+                                 @Value("${hmdp.cache.compress-threshold:512}") int compressThreshold) {
+        return "json".equalsIgnoreCase(codec) ? new JsonCacheCodec() : new BinaryCacheCodec(compressThreshold);
+    }
+}
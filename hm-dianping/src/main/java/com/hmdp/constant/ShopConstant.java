@@ -4,6 +4,9 @@ public class ShopConstant {
     // 店铺存储到redis时的key前缀
     public static final String CACHE_SHOP_KEY = "Cache:Shop:Key:";
 
+    // 批量查询店铺时使用的key前缀, 值是店铺的json. 和上面的key分开, 上面的key存储的是带逻辑过期时间的RedisData
+    public static final String CACHE_SHOP_BATCH_KEY = "Cache:Shop:Batch:";
+
     // 店铺类别列表 存储到redis时的key前缀
     public static final String CACHE_SHOP_TYPE_KEY = "Cache:Shop:Type:key";
 
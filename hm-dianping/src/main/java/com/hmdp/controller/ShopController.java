@@ -6,11 +6,14 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilterClient;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_SHOP;
+
 /**
  * <p>
  * 前端控制器
@@ -26,6 +29,9 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private BloomFilterClient bloomFilterClient;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
@@ -45,6 +51,8 @@ public class ShopController {
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
         shopService.save(shop);
+        // 添加到布隆过滤器
+        bloomFilterClient.add(BLOOM_FILTER_SHOP, shop.getId());
         // 返回店铺id
         return Result.ok(shop.getId());
     }
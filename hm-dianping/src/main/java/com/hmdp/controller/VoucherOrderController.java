@@ -3,12 +3,25 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillAdmissionControl;
+import com.hmdp.utils.SeckillOrderReclaimer;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillStockReconciler;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_POLL_MAX_TIMEOUT;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_POLL_TIMEOUT;
 
 /**
  * <p>
@@ -25,6 +38,18 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillOrderReclaimer seckillOrderReclaimer;
+
+    @Resource
+    private SeckillAdmissionControl seckillAdmissionControl;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillStockReconciler seckillStockReconciler;
+
     /**
      * 秒杀优惠券
      *
@@ -35,4 +60,50 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.secKillVoucher(voucherId);
     }
+
+    /**
+     * 长轮询秒杀订单状态, 订单还在排队时挂起请求(不占用servlet线程), 落库或者失败之后立即返回, 超时返回QUEUED
+     *
+     * 只能查询自己的订单, 其他用户的订单和不存在的订单一样返回404
+     *
+     * @param orderId 秒杀接口返回的订单id
+     * @param timeout 最长等待时间(毫秒)
+     * @return {@link DeferredResult}, 数据为QUEUED/PERSISTED/FAILED
+     */
+    @GetMapping("status/{id}")
+    public DeferredResult<Result> orderStatus(@PathVariable("id") Long orderId,
+                                              @RequestParam(value = "timeout", required = false) Long timeout,
+                                              HttpServletResponse response) {
+        if (!seckillOrderStatus.ownedBy(orderId, UserHolder.getUser().getId())) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            DeferredResult<Result> result = new DeferredResult<>();
+            result.setResult(Result.fail("订单不存在"));
+            return result;
+        }
+        long wait = timeout == null ? SECKILL_ORDER_POLL_TIMEOUT : Math.max(1, Math.min(timeout, SECKILL_ORDER_POLL_MAX_TIMEOUT));
+        return seckillOrderStatus.await(orderId, wait);
+    }
+
+    /**
+     * 秒杀订单stream的积压、pending-list大小、重试和死信统计, 以及消费速度和是否接受新的秒杀请求
+     *
+     * @return {@link Result}
+     */
+    @GetMapping("stream/stats")
+    public Result streamStats() {
+        Map<String, Object> stats = seckillOrderReclaimer.stats();
+        stats.put("drainRate", seckillAdmissionControl.drainRate());
+        stats.put("accepting", seckillAdmissionControl.accepting());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 上一次redis和数据库库存对账发现的不一致
+     *
+     * @return {@link Result}
+     */
+    @GetMapping("reconcile")
+    public Result reconcileReport() {
+        return Result.ok(seckillStockReconciler.lastReport());
+    }
 }
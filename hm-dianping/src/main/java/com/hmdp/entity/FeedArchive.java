@@ -0,0 +1,42 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * 收件箱归档, 从redis收件箱中移出的较早的笔记
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_feed_archive")
+public class FeedArchive implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 收件箱所属的用户id
+     */
+    private Long userId;
+
+    /**
+     * 推送到收件箱的时间戳(毫秒)
+     */
+    private Long ts;
+
+    /**
+     * 笔记id
+     */
+    private Long blogId;
+
+
+}
@@ -54,6 +54,21 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime endTime;
 
+    /**
+     * 每人限购数量
+     */
+    private Integer userLimit;
+
+    /**
+     * 所属活动的id, 没有活动为null
+     */
+    private Long campaignId;
+
+    /**
+     * 每人在整个活动中的限购数量
+     */
+    private Integer campaignLimit;
+
     /**
      * 更新时间
      */
@@ -92,6 +92,24 @@ public class Voucher implements Serializable {
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss", timezone = "GMT+8")
     private LocalDateTime endTime;
 
+    /**
+     * 每人限购数量, 为空表示一人一单
+     */
+    @TableField(exist = false)
+    private Integer userLimit;
+
+    /**
+     * 所属活动的id
+     */
+    @TableField(exist = false)
+    private Long campaignId;
+
+    /**
+     * 每人在整个活动中的限购数量
+     */
+    @TableField(exist = false)
+    private Integer campaignLimit;
+
     /**
      * 创建时间
      */
@@ -42,6 +42,11 @@ public class VoucherOrder implements Serializable {
      */
     private Long voucherId;
 
+    /**
+     * 订单在用户这个代金券下的序号, 从1开始, 只增不减, 归还过限购数量时不连续. 每人限购一件时总是1
+     */
+    private Integer seq;
+
     /**
      * 支付方式 1：余额支付；2：支付宝；3：微信
      */
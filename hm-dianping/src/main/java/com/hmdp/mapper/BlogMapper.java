@@ -3,6 +3,9 @@ package com.hmdp.mapper;
 import com.github.yulichang.base.MPJBaseMapper;
 import com.hmdp.entity.Blog;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -15,4 +18,12 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface BlogMapper extends MPJBaseMapper<Blog> {
 
+    /**
+     * 批量写入点赞数, liked = 点赞人数
+     *
+     * @param likes key为笔记id, value为点赞人数, 不能为空
+     * @return 修改的行数
+     */
+    int updateLikedBatch(@Param("likes") Map<Long, Long> likes);
+
 }
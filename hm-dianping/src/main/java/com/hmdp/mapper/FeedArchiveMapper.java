@@ -0,0 +1,27 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.FeedArchive;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+public interface FeedArchiveMapper extends BaseMapper<FeedArchive> {
+
+    /**
+     * INSERT IGNORE批量写入归档, 已经归档过的(主键冲突)忽略, 归档中途失败之后可以重做
+     *
+     * @param archives 归档, 不能为空
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("archives") List<FeedArchive> archives);
+
+}
@@ -2,6 +2,7 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * <p>
@@ -13,4 +14,12 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 剩余库存与订单数之和, 即初始库存
+     *
+     * @param voucherId 优惠券id
+     * @return 库存总数, 优惠券不存在返回null
+     */
+    Long selectStockTotal(@Param("voucherId") Long voucherId);
+
 }
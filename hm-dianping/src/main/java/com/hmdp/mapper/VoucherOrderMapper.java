@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,28 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条多行INSERT批量插入订单
+     *
+     * @param orders 订单, 不能为空
+     * @return 插入的行数
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * INSERT IGNORE插入订单, 违反唯一索引(voucher_id, user_id)或者主键时忽略
+     *
+     * @param order 订单
+     * @return 插入的行数, 0表示已经存在
+     */
+    int insertIgnore(@Param("order") VoucherOrder order);
+
+    /**
+     * INSERT IGNORE批量插入订单
+     *
+     * @param orders 订单, 不能为空
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
+
 }
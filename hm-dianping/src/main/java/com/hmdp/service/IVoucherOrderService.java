@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * <p>
  *  服务类
@@ -32,6 +35,14 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     /**
      * 创建订单优惠券
      * @param voucherOrder 优惠券
+     * @return 订单是否已经落库, 重复投递的同一个订单也返回true
+     */
+    boolean createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单, 同一个优惠券的订单一次扣减库存、一次插入
+     * @param voucherOrders 订单
+     * @return 已经落库的订单id, 其余订单下单失败
      */
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
@@ -7,11 +7,14 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
+import com.hmdp.entity.User;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedClient;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.core.io.ClassPathResource;
@@ -21,8 +24,13 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -43,6 +51,12 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private FeedClient feedClient;
+
     private static final DefaultRedisScript<String> REMOVE_FEED_SCRIPT;
     static {
         REMOVE_FEED_SCRIPT = new DefaultRedisScript<>();
@@ -60,7 +74,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result follow(Long followUserId, Boolean isFollow) {
         // 1. 获取当前登录用户
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
+        String key = FOLLOWS_KEY + userId;
         // 2. 判断到底是关注还是取关
         if (isFollow) {
             // 3. 关注
@@ -71,6 +85,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
             if (isSuccess) {
                 // 把关注用户的id, 放入到redis集合中 sadd userId followUserId
                 stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+                feedClient.followed(followUserId, true);
             }
         } else {
             // 4. 取关
@@ -81,6 +96,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
             if (isSuccess) {
                 // 把关注用户的id从redis集合中移除
                 stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+                feedClient.followed(followUserId, false);
 
                 // 把属于关注用户的帖子id从粉丝的收件箱中移除
                 List<Blog> blogs = blogService.list(new LambdaQueryWrapper<>(Blog.class)
@@ -98,6 +114,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
                         Collections.emptyList(),
                         userId.toString(), idsStr
                 );
+                feedClient.removeArchived(userId, ids);
             }
         }
         return Result.ok();
@@ -126,20 +143,22 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result followCommons(Long id) {
         // 1. 获取当前登录用户
         Long userId = UserHolder.getUser().getId();
-        String loginUserKey = "follows:" + userId;
+        String loginUserKey = FOLLOWS_KEY + userId;
         // 2. 当前用户
-        String userKey = "follows:" + id;
+        String userKey = FOLLOWS_KEY + id;
         Set<String> intersect = stringRedisTemplate.opsForSet().intersect(loginUserKey, userKey);
         // 3. 解析id集合
         if (intersect == null) {
             return Result.ok(Collections.emptyList());
         }
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 4. 查询用户
-        List<UserDTO> userDTOList = userService.
-                listByIds(ids)
+        // 4. 查询用户 -> 批量查询用户缓存, 未命中的再一次性查询数据库
+        List<UserDTO> userDTOList = cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class,
+                        missIds -> userService.listByIds(missIds).stream()
+                                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                        CACHE_USER_TTL, TimeUnit.MINUTES)
                 .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
         return Result.ok(userDTOList);
     }
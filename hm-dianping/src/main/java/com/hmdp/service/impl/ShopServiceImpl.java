@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -14,12 +15,14 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -27,11 +30,10 @@ import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.hmdp.constant.ShopConstant.CACHE_SHOP_BATCH_KEY;
 import static com.hmdp.constant.ShopConstant.CACHE_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -87,7 +89,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
         // 工具类解决
-        Shop shop = cacheClient.queryWithLogicalExpire(
+        // Shop shop = cacheClient.queryWithLogicalExpire(
+        //         CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById,
+        //         20L, TimeUnit.MINUTES);
+
+        // 逻辑过期 + 概率提前刷新, 热点店铺在过期之前就会被某一次请求提前重建, 不会在过期的一瞬间集中抢锁
+        Shop shop = cacheClient.queryWithEarlyRefresh(
                 CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById,
                 20L, TimeUnit.MINUTES);
 
@@ -199,8 +206,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
-    // 线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // 缓存重建线程池, 由Spring管理, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskExecutor cacheRebuildExecutor;
 
     /**
      * 缓存击穿 -> 使用逻辑缓存解决
@@ -241,17 +249,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 6.2- 失败 返回
         if (isLock) {
             // TODO: 6.3- 成功 开启独立线程重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 重建缓存
-                    this.saveShop2Redis(id, 20L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
+            try {
+                cacheRebuildExecutor.execute(() -> {
+                    try {
+                        // 重建缓存
+                        this.saveShop2Redis(id, 20L);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        // 释放锁
+                        unlock(lockKey);
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                // 队列满了或者正在关闭, 释放锁, 下一次访问再重建
+                unlock(lockKey);
+            }
         }
 
         // 6.4- 返回过期的店铺信息
@@ -276,8 +289,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 1- 更新数据库
         updateById(shop);
 
-        // 2- 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        // 2- 删除缓存 -> 同时删除redis缓存和各个节点的本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + shop.getId());
+        cacheClient.delete(CACHE_SHOP_BATCH_KEY + shop.getId());
 
         return Result.ok();
     }
@@ -336,13 +350,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shopList = list(new LambdaQueryWrapper<>(Shop.class)
-                .in(Shop::getId, ids)
-                .last("ORDER BY FIELD(id," + idStr + ")")
-        );
-        for (Shop shop : shopList) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        // 5. 批量查询店铺, 一次MGET, 未命中的一次IN查询, 返回结果和ids顺序一致, 不再需要ORDER BY FIELD
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_BATCH_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shopList = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            if (shop == null) {
+                continue;
+            }
+            // 缓存中的对象是共享的(本地缓存), 距离是每次请求各自的, 所以复制一份再设置
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shopList.add(copy);
         }
         // 6. 返回
         return Result.ok(shopList);
@@ -1,13 +1,13 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
-import com.hmdp.entity.ShopTypeTuple;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheCodec;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
@@ -15,6 +15,7 @@ import javax.annotation.Resource;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -32,7 +33,10 @@ import static com.hmdp.constant.ShopConstant.CACHE_SHOP_TYPE_KEY;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private CacheCodec cacheCodec;
 
     /**
      * 查询所有的商户类型
@@ -42,11 +46,14 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     @Override
     public Result selectAllShopType() {
         // 1- 查询redis中是否存在商户类型
-        Set<String> shopTypeSet = stringRedisTemplate.opsForZSet().range(CACHE_SHOP_TYPE_KEY, 0, 100);
+        Set<byte[]> shopTypeSet = byteRedisTemplate.opsForZSet().range(CACHE_SHOP_TYPE_KEY, 0, 100);
         if (shopTypeSet != null && !shopTypeSet.isEmpty()) {
-            // 2- 有 -> 直接返回
-            List<ShopType> shopTypeList = shopTypeSet.stream().map(shopType -> JSONUtil.toBean(shopType, ShopType.class)).collect(Collectors.toList());
-            return Result.ok(shopTypeList);
+            // 2- 有 -> 直接返回, 解码失败(类结构变了)的话删掉缓存重新查询数据库
+            List<ShopType> shopTypeList = shopTypeSet.stream().map(shopType -> cacheCodec.decode(shopType, ShopType.class)).collect(Collectors.toList());
+            if (shopTypeList.stream().allMatch(Objects::nonNull)) {
+                return Result.ok(shopTypeList);
+            }
+            byteRedisTemplate.delete(CACHE_SHOP_TYPE_KEY);
         }
 
         // 3- 没有 -> 到数据库中查询所有的商户信息
@@ -56,12 +63,11 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
         if (shopType != null && !shopType.isEmpty()) {
             // 5- 将数据组织好存储到redis  存储到Redis使用Zset类型, 对应ZSetOperations.TypedTuple
 
-            Set<ZSetOperations.TypedTuple<String>> shopTypeTuples = new HashSet<ZSetOperations.TypedTuple<String>>();
+            Set<ZSetOperations.TypedTuple<byte[]>> shopTypeTuples = new HashSet<ZSetOperations.TypedTuple<byte[]>>();
             shopType.stream().forEach(shopTypeItem -> {
-                ShopTypeTuple shopTypeTuple = new ShopTypeTuple(shopTypeItem, shopTypeItem.getSort().doubleValue());
-                shopTypeTuples.add(shopTypeTuple);
+                shopTypeTuples.add(new DefaultTypedTuple<>(cacheCodec.encode(shopTypeItem), shopTypeItem.getSort().doubleValue()));
             });
-            stringRedisTemplate.opsForZSet().add(CACHE_SHOP_TYPE_KEY, shopTypeTuples);
+            byteRedisTemplate.opsForZSet().add(CACHE_SHOP_TYPE_KEY, shopTypeTuples);
         }
 
         // 6- 返回
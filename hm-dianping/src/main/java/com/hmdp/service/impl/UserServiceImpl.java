@@ -12,6 +12,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterClient;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -46,6 +47,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource(name = "stringRedisTemplate")
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private BloomFilterClient bloomFilterClient;
+
     /**
      * 发送验证码
      *
@@ -220,6 +224,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
         // 2- 保存用户
         save(user);
+        // 3- 添加到布隆过滤器
+        bloomFilterClient.add(BLOOM_FILTER_USER, user.getId());
         return user;
     }
 }
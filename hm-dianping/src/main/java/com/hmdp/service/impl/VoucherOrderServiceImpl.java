@@ -11,32 +11,50 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.RedisIdTool;
+import com.hmdp.utils.SeckillAdmissionControl;
+import com.hmdp.utils.SeckillOrderReclaimer;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.SeckillVoucherCache;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_ORDER;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -48,7 +66,7 @@ import static com.hmdp.utils.RedisConstants.SECKILL_ORDER;
  */
 @Slf4j
 @Service("voucherOrderService")
-public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
+public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService, SmartLifecycle {
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
@@ -62,6 +80,49 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillAdmissionControl seckillAdmissionControl;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    // 自身的代理对象, 消费订单的线程用它调用事务方法. 不能依赖secKillVoucher中设置的proxy, 集群部署时消费订单的节点不一定处理过秒杀请求
+    @Lazy
+    @Resource
+    private IVoucherOrderService self;
+
+    // 每个节点消费订单的线程数
+    @Value("${hmdp.seckill.order-consumers:2}")
+    private int orderConsumers;
+
+    // 每次读取的订单条数
+    @Value("${hmdp.seckill.order-batch-size:100}")
+    private int orderBatchSize;
+
+    // 消费者名称前缀, 为空时使用 主机名-进程id
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    // 订单落库使用INSERT IGNORE, 由唯一索引uk_voucher_user保证一人一单
+    @Value("${hmdp.seckill.order-insert-ignore:true}")
+    private boolean orderInsertIgnore;
+
+    // 关闭时等待消费者处理完当前批次的最长时间(毫秒), 超时之后中断消费者线程
+    @Value("${hmdp.seckill.shutdown-timeout:10000}")
+    private long shutdownTimeout;
+
     // redis脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
     static {
@@ -76,8 +137,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     // 创建一个线程池用于监听这个队列
     // private static final ExecutorService SECKILL_ORDER_HANDLER = Executors.newSingleThreadExecutor();
 
-    // 消息队列 线程
-    private static final ExecutorService SECKILL_ORDER_MQ_HANDLER = Executors.newSingleThreadExecutor();
+    // 消息队列 线程, 每个线程是消费者组中的一个消费者, 由Spring管理, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskExecutor seckillOrderExecutor;
+
+    // 消费者是否继续读取消息, stop()之后置为false, 消费者处理完当前批次之后退出
+    private volatile boolean running;
 
     // 代理对象
     private IVoucherOrderService proxy;
@@ -85,6 +150,23 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     // 使用redis的stream实现
     @Override
     public Result secKillVoucher(Long voucherId) {
+        // 已售罄的优惠券直接在本地拒绝, 不生成订单id也不执行脚本
+        if (seckillSoldOutCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 用本地缓存的优惠券描述预先过滤, 脚本中还会用redis的时间再判断一次
+        SeckillVoucherCache.Descriptor descriptor = seckillVoucherCache.get(voucherId);
+        if (descriptor == null) {
+            return Result.fail("优惠券异常~");
+        }
+        String reason = descriptor.check(System.currentTimeMillis());
+        if (reason != null) {
+            return Result.fail(reason);
+        }
+        // 订单积压过多或者超过优惠券的限流速度, 快速失败, 让用户稍后重试
+        if (!seckillAdmissionControl.accepting() || !seckillAdmissionControl.tryAcquire(voucherId)) {
+            return Result.fail("排队人数过多, 请稍后重试");
+        }
         // 获取用户
         UserDTO user = UserHolder.getUser();
         Long userId = user.getId();
@@ -95,95 +177,269 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         proxy = (IVoucherOrderService) AopContext.currentProxy();
 
         // 执行lua脚本, 参数分别是, redis脚本内容, 脚本需要使用的keys, 脚本需要的args, 并且args只能是string类型
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
+        // 库存分片的优惠券在用户所在的分片上扣减库存, 租用模式下从本地租到的库存中分配(属于活动的优惠券除外)
+        Long result;
+        // 库存不足是否说明已经卖完: 只有seckill.lua的唯一库存key是准确的, 分片和租用模式要再查一次全部库存和租约
+        boolean exact = false;
+        if (seckillStockClient.shards(voucherId) > 1) {
+            result = seckillStockClient.seckill(voucherId, userId, orderId, descriptor);
+        } else if (seckillStockLease.supports(descriptor)) {
+            result = seckillStockLease.seckill(voucherId, userId, orderId, descriptor);
+        } else {
+            exact = true;
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+        }
         // 2. 判断结果是否为0
         int r = result.intValue();
         if (r != 0) {
-            // 2.1. 不为0, 表示没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不允许重复下单");
+            // 2.1. 不为0, 表示没有购买资格, 库存不足时在本地标记售罄
+            if (r == 1 && (exact || seckillStockClient.soldOut(voucherId))) {
+                seckillSoldOutCache.markSoldOut(voucherId);
+            }
+            return Result.fail(seckillFailMessage(r, descriptor.getLimit()));
         }
 
         // 3. 返回订单id
         return Result.ok(orderId);
     }
 
-    @PostConstruct
-    public void initMQ() {
-        SECKILL_ORDER_MQ_HANDLER.submit(new VoucherOrderHandlerMQ());
+    /**
+     * 秒杀脚本返回值对应的提示
+     *
+     * @param r     1: 库存不足, 2: 重复下单(达到每人限购数量), 3: 未开始, 4: 已结束, 5: 已下架, 6: 达到活动限购数量
+     * @param limit 每人限购数量
+     * @return 提示信息
+     */
+    private static String seckillFailMessage(int r, int limit) {
+        switch (r) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return limit > 1 ? "每人限购" + limit + "件" : "不允许重复下单";
+            case 3:
+                return "活动尚未开始哟，请耐心等待~";
+            case 4:
+                return "活动已结束，下次记着早点参与呦~";
+            case 6:
+                return "已达到活动限购数量";
+            default:
+                return "优惠券已下架";
+        }
+    }
+
+    /**
+     * 容器刷新完成之后启动消费者, 关闭时在web服务器之后、其他组件之前停止
+     * <p>
+     * TODO:
+     *      - 之前在@PostConstruct中启动, 线程池是Executors.newFixedThreadPool, 关闭应用时线程还在XREADGROUP,
+     *        redis连接已经关闭, 正在处理的一批订单可能已经落库但没有XACK, 下次启动时重复处理.
+     *      - 阶段为DEFAULT_PHASE - 2, 在web服务器优雅停机(DEFAULT_PHASE)和停止(DEFAULT_PHASE - 1)之后停止,
+     *        已经进入stream的订单都能被读取; 在redis连接工厂、数据源销毁之前停止, 最后一批能够落库并确认.
+     *      - stop(): 不再读取新消息, 每个消费者处理完当前批次并XACK, 再扫描一遍自己的pending-list,
+     *        pending-list为空时从消费者组中删除自己(消费者名称包含进程id, 重启之后不会再使用). 超过shutdown-timeout还没有结束时中断线程,
+     *        没有确认的消息留在pending-list中, 由其他节点的SeckillOrderReclaimer认领.
+     * </p>
+     */
+    @Override
+    public void start() {
+        createOrderGroup();
+        running = true;
+        int consumers = Math.max(1, orderConsumers);
+        for (int i = 0; i < consumers; i++) {
+            // 消费者名称在整个消费者组中唯一, 否则多个节点会读到同一个pending-list
+            seckillOrderExecutor.execute(new VoucherOrderHandlerMQ(
+                    SeckillOrderReclaimer.consumerName(consumerName, String.valueOf(i))));
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        ThreadPoolExecutor executor = seckillOrderExecutor.getThreadPoolExecutor();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                log.warn("订单消费者在{}ms内没有结束, 中断消费者线程", shutdownTimeout);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2;
+    }
+
+    /**
+     * 创建消费者组 XGROUP CREATE stream.orders g1 0 MKSTREAM, 已经存在时忽略
+     */
+    private void createOrderGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // BUSYGROUP, 消费者组已经存在
+            log.debug("消费者组已存在: {}", e.getMessage());
+        }
     }
 
     // 监听消息队列线程需要做的事情
+    /*
+        每次读取一批订单(XREADGROUP COUNT N), 按优惠券分组之后在一个事务中处理:
+        每个优惠券一条 stock = stock - k 的UPDATE和一条多行INSERT, 整批处理完成之后一条XACK确认.
+        批次越大, 每条订单分摊到的事务、网络往返越少. 没有消息时BLOCK等待, 低峰期一批只有几条, 不会增加延迟.
+     */
     private class VoucherOrderHandlerMQ implements Runnable {
-        String queueName = "stream.orders";
+        private final String queueName = SECKILL_ORDER_STREAM;
+        private final Consumer consumer;
+
+        private VoucherOrderHandlerMQ(String name) {
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, name);
+        }
+
         @Override
         public void run() {
-            while (true) {
-                // 1. 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >, 固定消费者名称c1应该配置到yaml文件中
+            // 启动时先处理自己上次没有确认的消息
+            handlerPendingList();
+            while (running && !Thread.currentThread().isInterrupted()) {
+                // 1. 获取消息队列中的订单信息 XREADGROUP GROUP g1 consumer COUNT N BLOCK 2000 STREAMS stream.orders >
                 try {
-                    // 返回list, 因为count值不固定
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            consumer,
+                            StreamReadOptions.empty().count(orderBatchSize).block(Duration.ofSeconds(2)),
                             StreamOffset.create(queueName, ReadOffset.lastConsumed())
                     );
-                    // System.out.println(list);
                     // 2. 判断消息读取是否成功
                     if (list == null || list.isEmpty()) {
                         // 如果失败, 说明没有消息, 继续下一次循环
                         continue;
                     }
-                    // 3. 解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 4. 如果成功则可以下单
-                    proxy.createVoucherOrder(voucherOrder);
-                    // 5. ACK确认 XACK stream.orders g1 id, 哪一个队列中的消息id被哪一个组消费完成
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    // 3. 批量下单, 成功之后一次确认
+                    handleBatch(list);
                 } catch (Exception e) {
+                    if (!running && Thread.currentThread().isInterrupted()) {
+                        // 关闭超时被中断, 没有确认的消息留在pending-list中
+                        return;
+                    }
                     log.error("处理订单异常", e);
                     // 消息异常, 没有被确认, 进入到pending-list
                     handlerPendingList();
                 }
             }
+            drain();
         }
 
+        /**
+         * 停止读取之后处理自己的pending-list, 全部确认之后从消费者组中删除自己, 否则保留, 由回收线程认领
+         */
+        private void drain() {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            handlerPendingList();
+            try {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(queueName, consumer, Range.unbounded(), 1L);
+                if (pending.isEmpty()) {
+                    // XGROUP DELCONSUMER stream.orders g1 consumer
+                    stringRedisTemplate.opsForStream().deleteConsumer(queueName, consumer);
+                } else {
+                    log.warn("消费者{}还有未确认的订单, 等待其他节点认领", consumer.getName());
+                }
+            } catch (Exception e) {
+                log.warn("删除消费者失败, consumer={}", consumer.getName(), e);
+            }
+        }
+
+        /*
+            整批处理失败之后逐条处理自己的pending-list, 只扫描一遍: 处理成功的确认, 失败的留在pending-list中,
+            由SeckillOrderReclaimer在空闲时间到了之后认领重试, 投递次数过多时写入死信stream.
+            不能一直重试, 否则一条处理不了的消息会让这个消费者卡住.
+         */
         private void handlerPendingList() {
-            while (true) {
-                // 1. 获取pending-list队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.orders 0
+            // 1. 获取pending-list队列中的订单信息 XREADGROUP GROUP g1 consumer COUNT N STREAMS stream.orders 0
+            String offset = "0";
+            while (!Thread.currentThread().isInterrupted()) {
+                List<MapRecord<String, Object, Object>> list;
                 try {
-                    // 返回list, 因为count值不固定
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
+                    list = stringRedisTemplate.opsForStream().read(
+                            consumer,
+                            StreamReadOptions.empty().count(orderBatchSize),
+                            StreamOffset.create(queueName, ReadOffset.from(offset))
                     );
-                    // 2. 判断消息读取是否成功
-                    if (list == null || list.isEmpty()) {
-                        // 如果失败, 说明pending-list没有异常消息, 结束次循环
-                        break;
-                    }
-                    // 3. 解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 4. 如果成功则可以下单
-                    proxy.createVoucherOrder(voucherOrder);
-                    // 5. ACK确认 XACK stream.orders g1 id, 哪一个队列中的消息id被哪一个组消费完成
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
                 } catch (Exception e) {
-                    // 再次出现异常时不需要处理, 继续进行下一次循环取数据
-                    log.error("处理pending-list订单异常", e);
+                    log.error("读取pending-list异常", e);
+                    return;
+                }
+                // 2. 判断消息读取是否成功
+                if (list == null || list.isEmpty()) {
+                    // 如果失败, 说明pending-list已经扫描完了
+                    return;
+                }
+                for (MapRecord<String, Object, Object> record : list) {
                     try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
+                        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                        boolean persisted = self.createVoucherOrder(voucherOrder);
+                        seckillOrderStatus.complete(Collections.singletonMap(voucherOrder.getId(),
+                                persisted ? SeckillOrderStatus.PERSISTED : SeckillOrderStatus.FAILED));
+                        stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, record.getId());
+                        seckillAdmissionControl.consumed(1);
+                        if (!persisted) {
+                            // 没有落库的订单确认之后归还redis中的库存和下单资格, 和死信的处理一样
+                            seckillStockClient.release(voucherOrder.getVoucherId(), voucherOrder.getUserId(), 1);
+                        }
+                    } catch (Exception e) {
+                        // 留在pending-list中, 交给回收线程
+                        log.error("处理pending-list订单异常, id={}", record.getId(), e);
                     }
                 }
+                // 3. 从这一页的最后一条之后继续读
+                offset = list.get(list.size() - 1).getId().getValue();
+            }
+        }
+
+        private void handleBatch(List<MapRecord<String, Object, Object>> list) {
+            List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+            RecordId[] ids = new RecordId[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                MapRecord<String, Object, Object> record = list.get(i);
+                voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                ids[i] = record.getId();
+            }
+            Set<Long> persisted = self.createVoucherOrders(voucherOrders);
+            // 事务提交之后更新订单状态, 通知等待结果的请求
+            Map<Long, String> statuses = new LinkedHashMap<>(voucherOrders.size() * 2);
+            List<VoucherOrder> failed = new ArrayList<>();
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                if (persisted.contains(voucherOrder.getId())) {
+                    statuses.put(voucherOrder.getId(), SeckillOrderStatus.PERSISTED);
+                } else {
+                    statuses.put(voucherOrder.getId(), SeckillOrderStatus.FAILED);
+                    failed.add(voucherOrder);
+                }
+            }
+            seckillOrderStatus.complete(statuses);
+            // XACK stream.orders g1 id1 id2 ..., 整批一次确认
+            stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, ids);
+            seckillAdmissionControl.consumed(ids.length);
+            // 没有落库的订单确认之后归还redis中的库存和下单资格, 先确认再归还, 和死信的处理一样
+            for (VoucherOrder voucherOrder : failed) {
+                seckillStockClient.release(voucherOrder.getVoucherId(), voucherOrder.getUserId(), 1);
             }
         }
     }
@@ -447,19 +703,25 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
+        if (orderInsertIgnore) {
+            return insertIgnoreVoucherOrder(voucherOrder);
+        }
         Long userId = voucherOrder.getUserId();
         // 1- 查询订单 根据登录用户查询优惠券订单 直接使用lambdaQuery代表的就是voucherOrderService
         Long voucherId = voucherOrder.getVoucherId();
-        Integer count = getBaseMapper().selectCount(new LambdaQueryWrapper<VoucherOrder>()
+        // 每人限购多件时同一个用户有多条订单, 按照seq区分
+        List<Object> orderIds = getBaseMapper().selectObjs(new LambdaQueryWrapper<VoucherOrder>()
+                .select(VoucherOrder::getId)
                 .eq(VoucherOrder::getUserId, userId)
-                .eq(VoucherOrder::getVoucherId, voucherId));
+                .eq(VoucherOrder::getVoucherId, voucherId)
+                .eq(VoucherOrder::getSeq, seqOf(voucherOrder)));
         // 2- 判断是否存在
-        if (count > 0) {
-            // 该用户已经购买过了
+        if (!orderIds.isEmpty()) {
+            // 该用户已经购买过了, 如果就是这个订单(消息重复投递), 说明已经落库
             log.info("该用户已经购买过本消费券了~");
             // 注意要返回, 否则下面的save方法会调用
-            return;
+            return ((Number) orderIds.get(0)).longValue() == voucherOrder.getId();
         }
         // 有抢购资格, 但是扣减库存失败, 这种情况概率比较小
         boolean success = seckillVoucherService.lambdaUpdate()
@@ -468,8 +730,146 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .gt(SeckillVoucher::getStock, 0).update();
         if (!success) {
             log.error("异常处理, 用户具有购买资格, 但是扣减库存失败");
+            return false;
+        }
+        return save(voucherOrder);
+    }
+
+    /**
+     * 唯一索引保证一人一单: 先INSERT IGNORE, 真正插入了才扣减库存, 正常情况下只有两条语句.
+     * 多个消费者同时处理同一个用户的订单时, 只有一个能插入成功, 不需要先查询
+     *
+     * @param voucherOrder 订单
+     * @return 订单是否已经落库
+     */
+    private boolean insertIgnoreVoucherOrder(VoucherOrder voucherOrder) {
+        if (getBaseMapper().insertIgnore(voucherOrder) == 0) {
+            // 用户已经下过单, 如果就是这个订单(消息重复投递), 说明已经落库
+            log.info("该用户已经购买过本消费券了~");
+            return getBaseMapper().selectCount(new LambdaQueryWrapper<VoucherOrder>()
+                    .eq(VoucherOrder::getId, voucherOrder.getId())) > 0;
+        }
+        boolean success = seckillVoucherService.lambdaUpdate()
+                .setSql("stock = stock - 1")
+                .eq(SeckillVoucher::getVoucherId, voucherOrder.getVoucherId())
+                .gt(SeckillVoucher::getStock, 0).update();
+        if (!success) {
+            log.error("异常处理, 用户具有购买资格, 但是扣减库存失败");
+            // 删除刚插入的订单, 不能回滚事务, 批量处理时这里运行在外层事务中
+            removeById(voucherOrder.getId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 订单在用户这个优惠券下的序号, 老的订单消息没有seq, 是一人一单
+     */
+    private static int seqOf(VoucherOrder voucherOrder) {
+        return voucherOrder.getSeq() == null ? 1 : voucherOrder.getSeq();
+    }
+
+    /**
+     * 批量创建订单
+     * <p>
+     * TODO:
+     *      - 按优惠券分组, 每个优惠券: 一条SELECT查出这一批中已经下过单的用户, 一条UPDATE扣减k个库存, 一条多行INSERT.
+     *      - 消息可能重复投递(提交之后、确认之前宕机), 已经下过单的用户和同一批中重复的用户都会被过滤掉,
+     *        已经落库的就是这个订单时仍然算作落库成功.
+     *      - 数据库库存不足k个时说明和redis中的库存不一致, 退化成逐条处理, 能扣多少扣多少.
+     *      - INSERT IGNORE模式下不需要先查询: 一条多行INSERT IGNORE, 按照实际插入的行数扣减库存, 有行被忽略时才查询哪些订单已经落库.
+     *        库存不足时抛出异常回滚整批, 由消费者逐条处理pending-list.
+     * </p>
+     *
+     * @param voucherOrders 订单
+     * @return 已经落库的订单id
+     */
+    @Override
+    @Transactional
+    public Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Set<Long> persisted = new HashSet<>();
+        Map<Long, List<VoucherOrder>> byVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            if (orderInsertIgnore) {
+                insertIgnoreVoucherOrders(voucherId, entry.getValue(), persisted);
+                continue;
+            }
+            // 1- 一人一单(每人限购多件时是一人一个seq一单), 同一批中的重复订单只保留第一条
+            Map<String, VoucherOrder> byUser = new LinkedHashMap<>();
+            Set<Long> userIds = new HashSet<>();
+            for (VoucherOrder voucherOrder : entry.getValue()) {
+                byUser.putIfAbsent(voucherOrder.getUserId() + DELIMITER + seqOf(voucherOrder), voucherOrder);
+                userIds.add(voucherOrder.getUserId());
+            }
+            // 2- 排除已经下过单的用户
+            List<VoucherOrder> bought = getBaseMapper().selectList(new LambdaQueryWrapper<VoucherOrder>()
+                    .select(VoucherOrder::getId, VoucherOrder::getUserId, VoucherOrder::getSeq)
+                    .eq(VoucherOrder::getVoucherId, voucherId)
+                    .in(VoucherOrder::getUserId, userIds));
+            for (VoucherOrder existing : bought) {
+                byUser.remove(existing.getUserId() + DELIMITER + seqOf(existing));
+                persisted.add(existing.getId());
+            }
+            if (byUser.isEmpty()) {
+                continue;
+            }
+            List<VoucherOrder> orders = new ArrayList<>(byUser.values());
+            int k = orders.size();
+            // 3- 一次扣减k个库存
+            boolean success = seckillVoucherService.lambdaUpdate()
+                    .setSql("stock = stock - " + k)
+                    .eq(SeckillVoucher::getVoucherId, voucherId)
+                    .ge(SeckillVoucher::getStock, k).update();
+            if (!success) {
+                log.error("异常处理, 数据库库存不足{}个, 逐条创建订单, voucherId={}", k, voucherId);
+                for (VoucherOrder order : orders) {
+                    if (createVoucherOrder(order)) {
+                        persisted.add(order.getId());
+                    }
+                }
+                continue;
+            }
+            // 4- 一条多行INSERT
+            getBaseMapper().insertBatch(orders);
+            orders.forEach(order -> persisted.add(order.getId()));
+        }
+        // 已经下过单的用户的其他订单id不在这一批中, 只返回这一批的订单
+        Set<Long> ids = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        persisted.retainAll(ids);
+        return persisted;
+    }
+
+    /**
+     * 一个优惠券的一批订单: INSERT IGNORE + 按照插入行数扣减库存
+     *
+     * @param voucherId 优惠券id
+     * @param orders    订单
+     * @param persisted 已经落库的订单id
+     */
+    private void insertIgnoreVoucherOrders(Long voucherId, List<VoucherOrder> orders, Set<Long> persisted) {
+        int inserted = getBaseMapper().insertIgnoreBatch(orders);
+        if (inserted == orders.size()) {
+            orders.forEach(order -> persisted.add(order.getId()));
+        } else {
+            // 有重复的用户或者重复投递的订单, 查出这一批中已经落库的订单id, 包括之前已经落库的
+            List<Object> ids = getBaseMapper().selectObjs(new LambdaQueryWrapper<VoucherOrder>()
+                    .select(VoucherOrder::getId)
+                    .in(VoucherOrder::getId, orders.stream().map(VoucherOrder::getId).collect(Collectors.toList())));
+            ids.forEach(id -> persisted.add(((Number) id).longValue()));
+        }
+        if (inserted == 0) {
             return;
         }
-        save(voucherOrder);
+        // 只为真正插入的订单扣减库存
+        boolean success = seckillVoucherService.lambdaUpdate()
+                .setSql("stock = stock - " + inserted)
+                .eq(SeckillVoucher::getVoucherId, voucherId)
+                .ge(SeckillVoucher::getStock, inserted).update();
+        if (!success) {
+            // 已经插入的订单无法区分是这一批插入的还是之前就有的, 回滚整批, 由消费者逐条处理
+            throw new IllegalStateException("数据库库存不足" + inserted + "个, voucherId=" + voucherId);
+        }
     }
 }
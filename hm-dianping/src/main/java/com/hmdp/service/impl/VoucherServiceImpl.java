@@ -7,6 +7,11 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SeckillVoucherCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -24,6 +29,7 @@ import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service("voucherService")
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
@@ -33,6 +39,21 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    /**
+     * 秒杀库存的分片个数, 1表示不分片
+     */
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+
     /**
      * 查询商铺的优惠券
      *
@@ -63,9 +84,24 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        seckillVoucher.setUserLimit(voucher.getUserLimit() == null ? 1 : voucher.getUserLimit());
+        seckillVoucher.setCampaignId(voucher.getCampaignId());
+        seckillVoucher.setCampaignLimit(voucher.getCampaignLimit());
         seckillVoucherService.save(seckillVoucher);
+        if (stockShards > 1 && voucher.getCampaignId() != null) {
+            // 活动限购计数和分片库存不在同一个slot, 分片模式下只判断每人限购数量
+            log.warn("分片库存的优惠券不判断活动限购数量, voucherId={}, campaignId={}", voucher.getId(), voucher.getCampaignId());
+        }
 
-        // 秒杀类优惠券保存到数据库之后, 同时保存到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 先写入描述(秒杀时间、状态), 再写入库存, 脚本看到库存时一定能看到描述
+        seckillVoucherCache.publish(voucher);
+        // 秒杀类优惠券保存到数据库之后, 同时保存到redis中, 开启分片时把库存拆分到多个分片
+        if (stockShards > 1) {
+            seckillStockClient.init(voucher.getId(), voucher.getStock(), stockShards);
+        } else {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        }
+        // 写入库存之后清除售罄标记
+        seckillSoldOutCache.clear(voucher.getId());
     }
 }
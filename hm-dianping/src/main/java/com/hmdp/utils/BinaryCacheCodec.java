@@ -0,0 +1,467 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制缓存编解码
+ * <p>
+ * TODO:
+ *      - 格式: [魔数0xB1][标志位][(压缩时)原始长度][内容], 魔数不可能是json的第一个字节, 据此区分两种格式.
+ *        标志位 bit0 表示内容经过LZ4压缩, bit1 表示内容是带逻辑过期时间的RedisData.
+ *      - 对象按照类的结构(schema)编码: 字段按名称排序后依次写入, 不写字段名, 先写一个null位图, 再写非null字段的值.
+ *        整数使用zigzag变长编码, 时间写成秒数和纳秒数, 字符串写长度和UTF-8字节.
+ *        schema的哈希值写在对象前面, 类的字段发生变化之后旧数据哈希值对不上, 解码返回null, 按未命中处理.
+ *      - 逻辑过期的RedisData直接解码出目标类型, 不需要像json那样先转成JSONObject再转换一次.
+ *      - 内容超过阈值时使用LZ4压缩, 阈值小于等于0表示不压缩.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+public class BinaryCacheCodec implements CacheCodec {
+
+    /**
+     * 魔数, 0xB1在UTF-8中只能出现在多字节字符的中间, 不可能是json字符串的第一个字节
+     */
+    private static final byte MAGIC = (byte) 0xB1;
+
+    private static final int FLAG_COMPRESSED = 1;
+
+    private static final int FLAG_LOGICAL = 1 << 1;
+
+    private static final LZ4Compressor LZ4_COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+
+    private static final LZ4SafeDecompressor LZ4_DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    /**
+     * 类 -> schema, 反射获取字段比较慢, 每个类只解析一次
+     */
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    /**
+     * 超过多少字节时压缩
+     */
+    private final int compressThreshold;
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * 判断是否为二进制格式
+     *
+     * @param bytes 字节数组
+     * @return true表示二进制格式
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Output out = new Output();
+        writeObject(out, value);
+        return finish(out, 0);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (!isBinary(bytes)) {
+            return JsonCacheCodec.decodeJson(bytes, type);
+        }
+        return decodeBinary(bytes, type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Output out = new Output();
+        writeTime(out, redisData.getExpireTime());
+        // delta可能为null, 写入delta + 1, 0表示null
+        out.writeVarLong(redisData.getDelta() == null ? 0 : redisData.getDelta() + 1);
+        writeObject(out, redisData.getData());
+        return finish(out, FLAG_LOGICAL);
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        if (!isBinary(bytes)) {
+            return JsonCacheCodec.decodeJsonLogical(bytes, type);
+        }
+        return decodeBinaryLogical(bytes, type);
+    }
+
+    static <T> T decodeBinary(byte[] bytes, Class<T> type) {
+        try {
+            Input in = open(bytes);
+            if ((in.flags & FLAG_LOGICAL) != 0) {
+                return null;
+            }
+            return readObject(in, type);
+        } catch (Exception e) {
+            log.debug("二进制缓存解码失败, 按未命中处理, type={}", type.getName(), e);
+            return null;
+        }
+    }
+
+    static <T> RedisData decodeBinaryLogical(byte[] bytes, Class<T> type) {
+        try {
+            Input in = open(bytes);
+            if ((in.flags & FLAG_LOGICAL) == 0) {
+                return null;
+            }
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(readTime(in));
+            long delta = in.readVarLong();
+            redisData.setDelta(delta == 0 ? null : delta - 1);
+            redisData.setData(readObject(in, type));
+            return redisData;
+        } catch (Exception e) {
+            log.debug("二进制缓存解码失败, 按未命中处理, type={}", type.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 加上魔数和标志位, 超过阈值时压缩
+     */
+    private byte[] finish(Output body, int flags) {
+        if (compressThreshold > 0 && body.size > compressThreshold) {
+            int maxLength = LZ4_COMPRESSOR.maxCompressedLength(body.size);
+            Output out = new Output(maxLength + 8);
+            out.writeByte(MAGIC);
+            out.writeByte(flags | FLAG_COMPRESSED);
+            out.writeVarLong(body.size);
+            out.ensure(maxLength);
+            out.size += LZ4_COMPRESSOR.compress(body.buf, 0, body.size, out.buf, out.size, maxLength);
+            return Arrays.copyOf(out.buf, out.size);
+        }
+        byte[] bytes = new byte[body.size + 2];
+        bytes[0] = MAGIC;
+        bytes[1] = (byte) flags;
+        System.arraycopy(body.buf, 0, bytes, 2, body.size);
+        return bytes;
+    }
+
+    /**
+     * 读取魔数和标志位, 压缩过的先解压
+     */
+    private static Input open(byte[] bytes) {
+        Input in = new Input(bytes, 2);
+        in.flags = bytes[1];
+        if ((in.flags & FLAG_COMPRESSED) != 0) {
+            int length = (int) in.readVarLong();
+            byte[] body = new byte[length];
+            LZ4_DECOMPRESSOR.decompress(bytes, in.pos, bytes.length - in.pos, body, 0, length);
+            Input decompressed = new Input(body, 0);
+            decompressed.flags = in.flags;
+            return decompressed;
+        }
+        return in;
+    }
+
+    private static void writeObject(Output out, Object value) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        Schema schema = schemaOf(value.getClass());
+        out.writeInt(schema.hash);
+        try {
+            // null位图
+            Object[] values = new Object[schema.fields.length];
+            byte[] nulls = new byte[(values.length + 7) / 8];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = schema.fields[i].get(value);
+                if (values[i] == null) {
+                    nulls[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            out.writeBytes(nulls);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    writeField(out, schema.kinds[i], values[i]);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T readObject(Input in, Class<T> type) throws ReflectiveOperationException {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        Schema schema = schemaOf(type);
+        if (in.readInt() != schema.hash) {
+            throw new IllegalStateException("schema不一致: " + type.getName());
+        }
+        T value = type.getDeclaredConstructor().newInstance();
+        byte[] nulls = in.readBytes((schema.fields.length + 7) / 8);
+        for (int i = 0; i < schema.fields.length; i++) {
+            if ((nulls[i >>> 3] & (1 << (i & 7))) == 0) {
+                schema.fields[i].set(value, readField(in, schema.kinds[i], schema.fields[i].getType()));
+            }
+        }
+        return value;
+    }
+
+    private static void writeField(Output out, Kind kind, Object value) {
+        switch (kind) {
+            case LONG:
+                out.writeVarLong(zigzag((Long) value));
+                break;
+            case INT:
+                out.writeVarLong(zigzag((Integer) value));
+                break;
+            case DOUBLE:
+                out.writeLong(Double.doubleToRawLongBits((Double) value));
+                break;
+            case BOOLEAN:
+                out.writeByte((Boolean) value ? 1 : 0);
+                break;
+            case STRING:
+                out.writeString((String) value);
+                break;
+            case LOCAL_DATE_TIME:
+                writeTime(out, (LocalDateTime) value);
+                break;
+            default:
+                // 其他类型退化为json字符串
+                out.writeString(JSONUtil.toJsonStr(value));
+        }
+    }
+
+    private static Object readField(Input in, Kind kind, Class<?> type) {
+        switch (kind) {
+            case LONG:
+                return unzigzag(in.readVarLong());
+            case INT:
+                return (int) unzigzag(in.readVarLong());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case BOOLEAN:
+                return in.readByte() != 0;
+            case STRING:
+                return in.readString();
+            case LOCAL_DATE_TIME:
+                return readTime(in);
+            default:
+                return JSONUtil.toBean(in.readString(), type);
+        }
+    }
+
+    private static void writeTime(Output out, LocalDateTime time) {
+        out.writeVarLong(zigzag(time.toEpochSecond(ZoneOffset.UTC)));
+        out.writeVarLong(time.getNano());
+    }
+
+    private static LocalDateTime readTime(Input in) {
+        long seconds = unzigzag(in.readVarLong());
+        return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static Schema schemaOf(Class<?> type) {
+        return SCHEMAS.computeIfAbsent(type, Schema::new);
+    }
+
+    private enum Kind {
+        LONG, INT, DOUBLE, BOOLEAN, STRING, LOCAL_DATE_TIME, OTHER
+    }
+
+    /**
+     * 类的结构: 所有非static非transient字段(包括父类), 按字段名排序
+     */
+    private static final class Schema {
+        private final Field[] fields;
+        private final Kind[] kinds;
+        private final int hash;
+
+        private Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            this.fields = list.toArray(new Field[0]);
+            this.kinds = new Kind[fields.length];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.length; i++) {
+                kinds[i] = kindOf(fields[i].getType());
+                signature.append(';').append(fields[i].getName()).append(':').append(fields[i].getType().getName());
+            }
+            this.hash = signature.toString().hashCode();
+        }
+
+        private static Kind kindOf(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return Kind.LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return Kind.INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return Kind.DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return Kind.BOOLEAN;
+            }
+            if (type == String.class) {
+                return Kind.STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return Kind.LOCAL_DATE_TIME;
+            }
+            return Kind.OTHER;
+        }
+    }
+
+    private static final class Output {
+        private byte[] buf;
+        private int size;
+
+        private Output() {
+            this(128);
+        }
+
+        private Output(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int more) {
+            if (size + more > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + more));
+            }
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        /**
+         * 无符号变长编码, 每个字节低7位存数据, 最高位表示后面还有字节
+         */
+        private void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+        private int flags;
+
+        private Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private byte readByte() {
+            return buf[pos++];
+        }
+
+        private byte[] readBytes(int length) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        private int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.constant.ShopConstant.CACHE_SHOP_BATCH_KEY;
+import static com.hmdp.constant.ShopConstant.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 布隆过滤器管理, 解决缓存穿透
+ * <p>
+ * TODO:
+ *      - 缓存空值的方案, 每个不存在的id都要查询一次数据库, 并且在redis中留下一个空值key, 被恶意攻击时数据库和redis都扛不住.
+ *        布隆过滤器判断不存在的id一定不存在, 直接返回, 既不查询数据库也不写空值.
+ *      - 分别为tb_shop, tb_blog, tb_user的id建立布隆过滤器, 启动时从redis加载, redis中没有则从数据库扫描构建,
+ *        新增数据时同步添加, 定时从redis重新加载本地镜像.
+ *      - 重建之后通过发布订阅通知其他节点重新加载, 新增数据之后通过发布订阅通知其他节点设置本地镜像
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class BloomFilterClient {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final ShopMapper shopMapper;
+
+    private final BlogMapper blogMapper;
+
+    private final UserMapper userMapper;
+
+    /**
+     * 过滤器名称 -> 过滤器
+     */
+    private final Map<String, RedisBloomFilter> filters = new HashMap<>();
+
+    /**
+     * 过滤器名称 -> 分页查询id的方法
+     */
+    private final Map<String, Function<Long, List<Long>>> idScanners = new HashMap<>();
+
+    /**
+     * 缓存key前缀 -> 过滤器, CacheClient根据key前缀找到对应的过滤器
+     */
+    private final Map<String, RedisBloomFilter> prefixFilters = new HashMap<>();
+
+    // 加载和定时刷新布隆过滤器的线程, 见ExecutorConfig
+    private final ThreadPoolTaskScheduler bloomFilterScheduler;
+
+    public BloomFilterClient(StringRedisTemplate stringRedisTemplate,
+                             RedisMessageListenerContainer redisMessageListenerContainer,
+                             ShopMapper shopMapper, BlogMapper blogMapper, UserMapper userMapper,
+                             @Qualifier("bloomFilterScheduler") ThreadPoolTaskScheduler bloomFilterScheduler) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+        this.shopMapper = shopMapper;
+        this.blogMapper = blogMapper;
+        this.userMapper = userMapper;
+        this.bloomFilterScheduler = bloomFilterScheduler;
+    }
+
+    @PostConstruct
+    public void init() {
+        // 1. 注册过滤器, 分页查询id使用keyset分页: where id > lastId order by id limit n
+        register(BLOOM_FILTER_SHOP, lastId -> toIds(shopMapper.selectObjs(new LambdaQueryWrapper<Shop>()
+                .select(Shop::getId).gt(Shop::getId, lastId).orderByAsc(Shop::getId)
+                .last("limit " + BLOOM_FILTER_SCAN_BATCH))));
+        register(BLOOM_FILTER_BLOG, lastId -> toIds(blogMapper.selectObjs(new LambdaQueryWrapper<Blog>()
+                .select(Blog::getId).gt(Blog::getId, lastId).orderByAsc(Blog::getId)
+                .last("limit " + BLOOM_FILTER_SCAN_BATCH))));
+        register(BLOOM_FILTER_USER, lastId -> toIds(userMapper.selectObjs(new LambdaQueryWrapper<User>()
+                .select(User::getId).gt(User::getId, lastId).orderByAsc(User::getId)
+                .last("limit " + BLOOM_FILTER_SCAN_BATCH))));
+        bindPrefix(CACHE_SHOP_KEY, BLOOM_FILTER_SHOP);
+        bindPrefix(CACHE_SHOP_BATCH_KEY, BLOOM_FILTER_SHOP);
+        bindPrefix(CACHE_USER_KEY, BLOOM_FILTER_USER);
+        bindPrefix(BLOG_LIKED_KEY, BLOOM_FILTER_BLOG);
+
+        // 2. 其他节点重建完成之后, 重新加载本地镜像
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            RedisBloomFilter filter = filters.get(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (filter != null) {
+                bloomFilterScheduler.execute(filter::reload);
+            }
+        }, new ChannelTopic(BLOOM_FILTER_RELOAD_CHANNEL));
+        // 其他节点新增的数据
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf(DELIMITER);
+            RedisBloomFilter filter = index < 0 ? null : filters.get(body.substring(0, index));
+            if (filter != null) {
+                filter.addLocal(body.substring(index + 1));
+            }
+        }, new ChannelTopic(BLOOM_FILTER_ADD_CHANNEL));
+
+        // 3. 异步加载, 不阻塞启动, 加载完成之前过滤器对所有id都返回存在; 之后定时重新加载, 同步其他节点新增的数据
+        bloomFilterScheduler.scheduleWithFixedDelay(this::reloadAll, Duration.ofMinutes(BLOOM_FILTER_RELOAD_INTERVAL));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bloomFilterScheduler.shutdown();
+    }
+
+    /**
+     * 判断缓存key前缀对应的数据是否可能存在, 没有对应的过滤器时返回true
+     *
+     * @param keyPrefix 缓存key前缀
+     * @param id        数据id
+     * @return false表示数据库中一定不存在
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        RedisBloomFilter filter = prefixFilters.get(keyPrefix);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据之后添加到布隆过滤器
+     *
+     * @param name 过滤器名称
+     * @param id   数据id
+     */
+    public void add(String name, Object id) {
+        filters.get(name).add(id);
+        // 通知其他节点设置本地镜像, 镜像判断不存在时不再访问redis
+        stringRedisTemplate.convertAndSend(BLOOM_FILTER_ADD_CHANNEL, name + DELIMITER + id);
+    }
+
+    /**
+     * 重建布隆过滤器, 只有拿到锁的节点执行重建, 重建完成后通知其他节点重新加载
+     *
+     * @param name 过滤器名称
+     * @return 是否执行了重建
+     */
+    public boolean rebuild(String name) {
+        String lockKey = LOCK_BLOOM_FILTER_KEY + name;
+        Boolean isLock = stringRedisTemplate.opsForValue()
+                .setIfAbsent(lockKey, "1", LOCK_BLOOM_FILTER_TTL, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(isLock)) {
+            return false;
+        }
+        try {
+            filters.get(name).rebuild(idScanners.get(name));
+            stringRedisTemplate.convertAndSend(BLOOM_FILTER_RELOAD_CHANNEL, name);
+            return true;
+        } finally {
+            stringRedisTemplate.delete(lockKey);
+        }
+    }
+
+    /**
+     * 当前误判率
+     *
+     * @param name 过滤器名称
+     * @return 根据置1的位数估算出的误判率
+     */
+    public double falsePositiveRate(String name) {
+        return filters.get(name).falsePositiveRate();
+    }
+
+    private void register(String name, Function<Long, List<Long>> idScanner) {
+        filters.put(name, new RedisBloomFilter(stringRedisTemplate, name,
+                BLOOM_FILTER_EXPECTED_INSERTIONS, BLOOM_FILTER_FPP));
+        idScanners.put(name, idScanner);
+    }
+
+    private void bindPrefix(String keyPrefix, String name) {
+        prefixFilters.put(keyPrefix, filters.get(name));
+    }
+
+    private void reloadAll() {
+        filters.values().forEach(filter -> {
+            try {
+                // redis中不存在则从数据库构建, 多个节点同时启动时只有一个节点构建, 其他节点下一轮再加载
+                if (!filter.reload() && !filter.isReady()) {
+                    rebuild(filter.getName());
+                }
+                log.debug("布隆过滤器{}当前误判率{}", filter.getName(), filter.falsePositiveRate());
+            } catch (Exception e) {
+                log.error("加载布隆过滤器{}异常", filter.getName(), e);
+            }
+        });
+    }
+
+    private static List<Long> toIds(List<Object> objs) {
+        return objs.stream().map(obj -> ((Number) obj).longValue()).collect(Collectors.toList());
+    }
+}
@@ -1,16 +1,31 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -25,6 +40,11 @@ import static com.hmdp.utils.RedisConstants.*;
  *      - 缓存击穿: 指的是对于单个热点key具有高并发量, 在其失效的瞬间, 持续的请求就会击破缓存, 直接请求到数据库.
  *                使用互斥锁(Mutex key); 热点key不过期, 后台异步更新; 提前使用互斥锁, 在value内部设置一个比缓存短的时间,
  *                当异步线程发现该值快过期时, 马上延长内置的这个时间, 并从数据库重新加载数据, 设知道缓存中去.
+ *      - 二级缓存: 在redis(L2)前面加一层JVM进程内的本地缓存(L1), 热点key直接从本地内存取出已经反序列化好的对象,
+ *                省掉一次网络往返和一次JSON解析. 本地缓存有容量上限和过期时间, 数据更新时通过redis的发布订阅通知所有节点删除.
+ *      - 布隆过滤器: 查询redis之前先经过布隆过滤器, 判断不存在的id直接返回null, 不会查询数据库也不会写入空值.
+ *      - 序列化: 缓存值通过CacheCodec编码成字节数组存入redis(默认紧凑的二进制格式), 空字节数组表示空值.
+ *                解码失败的数据按未命中处理, 切换编码方式时新旧格式都能读取.
  * </p>
  *
  * @author DELL_
@@ -36,16 +56,100 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final BloomFilterClient bloomFilterClient;
+
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private final CacheCodec cacheCodec;
+
+    /**
+     * 本地缓存(L1), LRU淘汰 + 过期时间, 存放的是已经反序列化好的对象
+     */
+    private final Cache<String, Object> localCache =
+            CacheUtil.newLRUCache(LOCAL_CACHE_CAPACITY, TimeUnit.SECONDS.toMillis(LOCAL_CACHE_TTL));
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisMessageListenerContainer redisMessageListenerContainer,
+                       BloomFilterClient bloomFilterClient,
+                       RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheCodec cacheCodec,
+                       @Qualifier("cacheRebuildExecutor") ThreadPoolTaskExecutor cacheRebuildExecutor) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+        this.bloomFilterClient = bloomFilterClient;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.cacheCodec = cacheCodec;
+    }
+
+    /**
+     * 订阅缓存失效频道, 任意一个节点删除缓存时, 所有节点(包括自己)都会删除本地缓存中对应的key
+     */
+    @PostConstruct
+    public void subscribeInvalidate() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 删除缓存, 同时删除redis缓存和本地缓存, 并广播给其他节点删除各自的本地缓存
+     *
+     * @param key 键
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.remove(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 从本地缓存中获取
+     * 注意: get时不能刷新最近访问时间, 否则热点key会一直续期, 本地缓存就永远不会过期了
+     *
+     * @param key  键
+     * @param type 类型
+     * @return 本地缓存中的对象, 不存在或类型不匹配返回null
+     */
+    private <R> R getLocal(String key, Class<R> type) {
+        Object value = localCache.get(key, false);
+        return type.isInstance(value) ? type.cast(value) : null;
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byteRedisTemplate.opsForValue().set(key, cacheCodec.encode(value), time, unit);
     }
 
-    // 线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 缓存空值, 空字节数组, 过期时间不应该设置得太长
+     *
+     * @param key 键
+     */
+    private void setNull(String key) {
+        byteRedisTemplate.opsForValue().set(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
+    }
+
+    // 缓存重建线程池, 由Spring管理, 有界队列
+    private final ThreadPoolTaskExecutor cacheRebuildExecutor;
+
+    /**
+     * 正在加载中的key -> 加载结果, 用于合并同一个JVM中的并发加载
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    /**
+     * 正在异步重建逻辑过期缓存的key, 同一个JVM中只有一个线程去抢重建锁
+     */
+    private final Set<String> rebuildingKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 概率提前刷新的统计
+     */
+    private final LongAdder earlyRefreshReads = new LongAdder();
+    private final LongAdder earlyRefreshTriggered = new LongAdder();
+    private final LongAdder expiredRefreshTriggered = new LongAdder();
 
     /**
      * 设置逻辑过期时间
@@ -61,7 +165,24 @@ public class CacheClient {
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
         // 使用逻辑过期时间, 所以不手动设置过期时间
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byteRedisTemplate.opsForValue().set(key, cacheCodec.encodeLogical(redisData));
+    }
+
+    /**
+     * 设置逻辑过期时间, 同时记录重建耗时, 用于概率提前刷新
+     *
+     * @param key   键
+     * @param value 值
+     * @param delta 重建耗时(毫秒)
+     * @param time  时间
+     * @param unit  时间单位
+     */
+    public void setWithEarlyRefresh(String key, Object value, long delta, Long time, TimeUnit unit) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setDelta(delta);
+        byteRedisTemplate.opsForValue().set(key, cacheCodec.encodeLogical(redisData));
     }
 
 
@@ -98,18 +219,28 @@ public class CacheClient {
                                           Long time,
                                           TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1- 从redis中查询信息 -> 返回的就是普通json串 注意: 存到redis中的都是字符串 即使是对象也是处理为字符串后再存储的
-        String json = stringRedisTemplate.opsForValue().get(key);
-
-        // 2- 判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3- 存在直接返回
-            return JSONUtil.toBean(json, type);
+        // 0- 先查本地缓存, 命中直接返回
+        R local = getLocal(key, type);
+        if (local != null) {
+            return local;
+        }
+        // 布隆过滤器判断不存在, 数据库中一定没有, 直接返回
+        if (!bloomFilterClient.mightContain(keyPrefix, id)) {
+            return null;
         }
+        // 1- 从redis中查询信息 -> 返回的是编码后的字节数组
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
 
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回错误信息
+        // 2- 判断是否存在
+        if (bytes != null && bytes.length > 0) {
+            // 3- 存在直接返回, 同时放入本地缓存. 解码失败(类结构变了)按未命中处理, 重新查询数据库
+            R r = cacheCodec.decode(bytes, type);
+            if (r != null) {
+                localCache.put(key, r);
+                return r;
+            }
+        } else if (bytes != null) {
+            // 命中的是空值, 返回错误信息
             return null;
         }
 
@@ -119,14 +250,15 @@ public class CacheClient {
 
         // 5- 不存在数据库中
         if (r == null) {
-            // 将空值存储到redis中 空字符串 过期时间改成2分钟 不应该设置得太长
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            // 将空值存储到redis中 空字节数组 过期时间改成2分钟 不应该设置得太长
+            setNull(key);
             // 返回错误信息
             return null;
         }
 
-        // 6- 存在数据库中 保存到redis中 -> 先转成JSON字符串
+        // 6- 存在数据库中 保存到redis中 -> 先编码成字节数组
         this.set(key, r, time, unit);
+        localCache.put(key, r);
 
         // 7- 返回
         return r;
@@ -135,6 +267,98 @@ public class CacheClient {
 
 
 
+    /**
+     * 批量查询, 解决一次需要查询N个数据时逐个查询缓存的问题, 无论N是多少都只有固定的几次网络往返
+     *      1. 本地缓存和布隆过滤器过滤一遍
+     *      2. 剩下的key使用一次MGET从redis中批量获取
+     *      3. 未命中的id使用一次IN查询从数据库批量获取
+     *      4. 数据库查询结果使用管道一次性写回redis, 数据库中不存在的id写入空值
+     *
+     * @param keyPrefix  key前缀
+     * @param ids        数据id集合
+     * @param type       数据类型
+     * @param dbFallback 批量查询数据库的方法, 参数为未命中缓存的id, 返回 id -> 数据
+     * @param time       过期时间
+     * @param unit       时间单位
+     * @return 与ids顺序一一对应的数据, 不存在的数据对应位置为null
+     * @param <R> 数据类型
+     * @param <ID> 数据唯一标志
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix,
+                                      List<ID> ids,
+                                      Class<R> type,
+                                      Function<List<ID>, Map<ID, R>> dbFallback,
+                                      Long time,
+                                      TimeUnit unit) {
+        List<R> results = new ArrayList<>(Collections.nCopies(ids.size(), null));
+        // 1- 本地缓存命中的直接填入结果, 布隆过滤器判断不存在的跳过, 剩下的需要查询redis, 记录其在结果中的下标
+        List<Integer> redisIndexes = new ArrayList<>();
+        List<String> redisKeys = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            ID id = ids.get(i);
+            String key = keyPrefix + id;
+            R local = getLocal(key, type);
+            if (local != null) {
+                results.set(i, local);
+            } else if (bloomFilterClient.mightContain(keyPrefix, id)) {
+                redisIndexes.add(i);
+                redisKeys.add(key);
+            }
+        }
+        if (redisKeys.isEmpty()) {
+            return results;
+        }
+
+        // 2- 一次MGET批量查询redis
+        List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(redisKeys);
+        // 未命中的id, 同一个id有可能出现多次, 记录所有下标
+        Map<ID, List<Integer>> missIndexes = new LinkedHashMap<>();
+        for (int j = 0; j < redisIndexes.size(); j++) {
+            int i = redisIndexes.get(j);
+            byte[] bytes = values == null ? null : values.get(j);
+            // 空字节数组说明缓存的是空值, 数据库中也不存在, 只有null和解码失败才需要查询数据库
+            R r = bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+            if (r != null) {
+                localCache.put(redisKeys.get(j), r);
+                results.set(i, r);
+            } else if (bytes == null || bytes.length > 0) {
+                missIndexes.computeIfAbsent(ids.get(i), k -> new ArrayList<>()).add(i);
+            }
+        }
+        if (missIndexes.isEmpty()) {
+            return results;
+        }
+
+        // 3- 一次IN查询数据库
+        Map<ID, R> result = dbFallback.apply(new ArrayList<>(missIndexes.keySet()));
+        // 返回null按全部不存在处理, 全部写入空值
+        Map<ID, R> loaded = result == null ? Collections.emptyMap() : result;
+
+        // 4- 使用管道一次性写回redis
+        long nullTtl = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        long ttl = unit.toSeconds(time);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            missIndexes.forEach((id, indexes) -> {
+                String key = keyPrefix + id;
+                R r = loaded.get(id);
+                if (r == null) {
+                    connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), new byte[0],
+                            Expiration.seconds(nullTtl), RedisStringCommands.SetOption.upsert());
+                    return;
+                }
+                connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), cacheCodec.encode(r),
+                        Expiration.seconds(ttl), RedisStringCommands.SetOption.upsert());
+                localCache.put(key, r);
+                indexes.forEach(i -> results.set(i, r));
+            });
+            return null;
+        });
+
+        // 5- 按照ids的顺序返回
+        return results;
+    }
+
+
     /*
         泛型 和 参数的说明参考上面
      */
@@ -159,112 +383,207 @@ public class CacheClient {
                                             Long time,
                                             TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1- 从redis中查询信息 -> 返回的就是普通json串 注意: 存到redis中的都是字符串 即使是对象也是处理为字符串后再存储的
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 0- 先查本地缓存, 本地缓存的过期时间不会超过逻辑过期时间, 所以命中的一定是未过期的数据
+        R local = getLocal(key, type);
+        if (local != null) {
+            return local;
+        }
+        // 布隆过滤器判断不存在, 数据库中一定没有, 直接返回
+        if (!bloomFilterClient.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 1- 从redis中查询信息 -> 返回的是编码后的字节数组
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        // 命中的是空值
+        if (bytes != null && bytes.length == 0) {
+            return null;
+        }
+        // 一次解码直接得到目标类型, 解码失败按未命中处理
+        RedisData redisData = bytes == null ? null : cacheCodec.decodeLogical(bytes, type);
 
         // 2- 判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (redisData == null) {
             // 3- 未命中缓存直接返回null (一般来说不会存在这种问题 如果未命中的话那么只能说明该店铺并不是热点店铺 没有参加活动)
             /*
                 问题: 如果缓存根本未预热, 那么从redis中查询的总会是null, 所以下面的逻辑不会执行.
                 针对热点key需要使用单元测试预热
              */
-            // 如果redis没有数据, 查询结果会一直为空, 创建缓存
-            CompletableFuture<R> futureResult = rebuildCache(lockKeyPrefix, id, dbFallback, time, unit, key);
-            R r = null;
-            try {
-                if (futureResult != null) {
-                    r = futureResult.get();
-                }
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
-            }
-            return r;
+            // 如果redis没有数据, 查询结果会一直为空, 创建缓存. 同一个JVM中同一个key只有一个线程去抢锁和查询数据库, 其他线程等待这个线程的结果
+            return singleFlight(key, type, () -> loadWithLock(key, lockKeyPrefix + id,
+                    cached -> parseLogicalData(cached, type),
+                    () -> {
+                        R r = dbFallback.apply(id);
+                        if (r == null) {
+                            setNull(key);
+                            return null;
+                        }
+                        this.setWithLogicalExpire(key, r, time, unit);
+                        return r;
+                    }));
         }
 
-        // 4- 命中 需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        // 这里面反序列化取出来的字符串本质是JSONObject 然后再次转换为实体类
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 4- 命中 解码时已经转换为实体类
+        R r = type.cast(redisData.getData());
 
         // 5- 是否过期
         LocalDateTime expireTime = redisData.getExpireTime();
         // 过期时间在当前时间之后 -> 说明还没有过期
         if (expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1- 未过期 返回
+            // 5.1- 未过期 放入本地缓存, 本地缓存的存活时间取 本地缓存过期时间 和 剩余逻辑过期时间 中较小的一个
+            long remainMillis = Duration.between(LocalDateTime.now(), expireTime).toMillis();
+            localCache.put(key, r, Math.min(remainMillis, TimeUnit.SECONDS.toMillis(LOCAL_CACHE_TTL)));
             return r;
         }
 
 
         // 5.2- 过期 重建缓存
 
-        // 6- 重建缓存
-        String lockKey = lockKeyPrefix + id;
-        // 6.1- 获取互斥锁
-        boolean isLock = tryLock(lockKey);
+        // 6- 重建缓存, 失败 返回(返回过期信息)
+        rebuildAsync(key, lockKeyPrefix + id, () -> {
+            // 查询数据库 -> 由于不知道具体的查询情况 因此交给调用者实现 参数为一个Function
+            R r1 = dbFallback.apply(id);
+            // 重建缓存
+            this.setWithLogicalExpire(key, r1, time, unit);
+        });
+        // 6.4- 返回过期的店铺信息
+        return r;
+    }
 
-        // 6.2- 失败 返回(返回过期信息)
+    /**
+     * 逻辑过期 + 概率提前刷新(XFetch)
+     * <p>
+     * 逻辑过期的热点key在同一时刻过期, 所有请求在这一刻一起去抢重建锁. 这里在缓存中额外记录一次重建耗时delta,
+     * 每次读取时按照 now - delta * beta * ln(random) >= expireTime 判断是否提前刷新:
+     * 离过期时间越近、重建越慢, 提前刷新的概率越大, 这样重建通常在过期之前就由某一次读取触发了, 刷新压力也被分散开.
+     * </p>
+     *
+     * @param keyPrefix     key前缀
+     * @param lockKeyPrefix 重建锁前缀
+     * @param id            数据唯一标志
+     * @param type          数据类型
+     * @param dbFallback    重建缓存时查询方法的逻辑
+     * @param time          逻辑过期时间
+     * @param unit          单位
+     * @return 缓存
+     * @param <R> 缓存类型
+     * @param <ID> 待缓存数据的唯一标志
+     */
+    public <R, ID> R queryWithEarlyRefresh(String keyPrefix, String lockKeyPrefix,
+                                           ID id,
+                                           Class<R> type,
+                                           Function<ID, R> dbFallback,
+                                           Long time,
+                                           TimeUnit unit) {
+        String key = keyPrefix + id;
+        R local = getLocal(key, type);
+        if (local != null) {
+            return local;
+        }
+        if (!bloomFilterClient.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 1- 重建缓存的逻辑, 记录查询数据库的耗时
+        Supplier<R> loader = () -> {
+            long begin = System.currentTimeMillis();
+            R r = dbFallback.apply(id);
+            if (r == null) {
+                setNull(key);
+                return null;
+            }
+            this.setWithEarlyRefresh(key, r, System.currentTimeMillis() - begin, time, unit);
+            return r;
+        };
 
-        if (isLock) {
-            // TODO: 6.3- 成功 开启独立线程重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库 -> 由于不知道具体的查询情况 因此交给调用者实现 参数为一个Function
-                    R r1 = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        if (bytes != null && bytes.length == 0) {
+            return null;
         }
-        // 6.4- 返回过期的店铺信息
+        RedisData redisData = bytes == null ? null : cacheCodec.decodeLogical(bytes, type);
+        // 2- 未命中或者解码失败, 同步重建
+        if (redisData == null) {
+            return singleFlight(key, type, () -> loadWithLock(key, lockKeyPrefix + id,
+                    cached -> parseLogicalData(cached, type), loader));
+        }
+
+        // 3- 命中, 判断是否需要刷新
+        R r = type.cast(redisData.getData());
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expireTime = redisData.getExpireTime();
+        long delta = redisData.getDelta() == null ? 0L : redisData.getDelta();
+        // ln(random)是负数, 所以gap是一个非负数, 期望值为 delta * beta
+        long gap = (long) (-delta * XFETCH_BETA * Math.log(ThreadLocalRandom.current().nextDouble()));
+        earlyRefreshReads.increment();
+        if (now.plus(gap, ChronoUnit.MILLIS).isBefore(expireTime)) {
+            // 3.1- 不需要刷新, 放入本地缓存. 本地缓存命中时不做判断, 所以要在提前刷新的区间之前失效,
+            // 否则热点key一直命中本地缓存, 每个节点大约30秒才读一次redis, 几乎抽不中提前刷新
+            long localMillis = Duration.between(now, expireTime).toMillis() - (long) (delta * XFETCH_BETA * XFETCH_LOCAL_WINDOW);
+            if (localMillis > 0) {
+                localCache.put(key, r, Math.min(localMillis, TimeUnit.SECONDS.toMillis(LOCAL_CACHE_TTL)));
+            }
+            return r;
+        }
+
+        // 3.2- 需要刷新, 区分是提前刷新还是已经过期
+        if (expireTime.isAfter(now)) {
+            earlyRefreshTriggered.increment();
+            log.debug("提前刷新缓存 key={}, 剩余{}ms, delta={}ms", key, Duration.between(now, expireTime).toMillis(), delta);
+        } else {
+            expiredRefreshTriggered.increment();
+        }
+        rebuildAsync(key, lockKeyPrefix + id, loader::get);
         return r;
     }
 
     /**
-     * 重建缓存, 返回值为CompletableFuture, 异步线程的执行结果需要使用future接收
-     * @param lockKeyPrefix 锁前缀
-     * @param id id
-     * @param dbFallback 方法
-     * @param time 时间
-     * @param unit 单位
-     * @param key 锁
-     * @return 重建的缓存内容
-     * @param <R> 返回值类型
-     * @param <ID> 缓存内容对应的唯一id
+     * 提前刷新的统计数据
+     *
+     * @return reads: 命中redis并参与判断的次数, early: 过期之前触发刷新的次数, expired: 已经过期才触发刷新的次数
      */
-    private <R, ID> CompletableFuture<R> rebuildCache(String lockKeyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit, String key) {
-        CompletableFuture<R> futureResult = new CompletableFuture<>();
-        // 6- 重建缓存
-        String lockKey = lockKeyPrefix + id;
-        // 6.1- 获取互斥锁
-        boolean isLock = tryLock(lockKey);
-
-        // 6.2- 失败 返回(返回过期信息)
+    public Map<String, Long> earlyRefreshMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("reads", earlyRefreshReads.sum());
+        metrics.put("early", earlyRefreshTriggered.sum());
+        metrics.put("expired", expiredRefreshTriggered.sum());
+        return metrics;
+    }
 
-        if (isLock) {
-            // TODO: 6.3- 成功 开启独立线程重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+    /**
+     * 异步重建缓存, 同一个JVM中只允许一个线程去抢重建锁, 抢到锁之后交给线程池执行
+     *
+     * @param key     缓存key
+     * @param lockKey 重建锁
+     * @param rebuild 重建逻辑
+     */
+    private void rebuildAsync(String key, String lockKey, Runnable rebuild) {
+        // 1- 其他线程正在重建, 直接返回, 不再访问redis
+        if (!rebuildingKeys.add(key)) {
+            return;
+        }
+        // 2- 获取互斥锁, 失败说明其他节点正在重建
+        boolean isLock = tryLock(lockKey);
+        if (!isLock) {
+            rebuildingKeys.remove(key);
+            return;
+        }
+        // TODO: 3- 成功 开启独立线程重建缓存
+        try {
+            cacheRebuildExecutor.execute(() -> {
                 try {
-                    // 查询数据库 -> 由于不知道具体的查询情况 因此交给调用者实现 参数为一个Function
-                    R r1 = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                    futureResult.complete(r1);
+                    rebuild.run();
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 } finally {
                     // 释放锁
                     unlock(lockKey);
+                    rebuildingKeys.remove(key);
                 }
             });
-            return futureResult;
+        } catch (TaskRejectedException e) {
+            // 队列满了或者正在关闭, 这次不重建, 继续返回旧数据, 下一次访问再重建
+            log.warn("缓存重建任务被拒绝, key={}", key);
+            unlock(lockKey);
+            rebuildingKeys.remove(key);
         }
-        return null;
     }
 
     public <R, ID> R queryWithMutex(String prefix, ID id,
@@ -272,50 +591,133 @@ public class CacheClient {
                                     Function<ID, R> dbFallback,
                                     Long time, TimeUnit unit) {
         String key = prefix + id;
+        // 0. 先查本地缓存
+        R local = getLocal(key, type);
+        if (local != null) {
+            return local;
+        }
+        // 布隆过滤器判断不存在, 直接返回
+        if (!bloomFilterClient.mightContain(prefix, id)) {
+            return null;
+        }
         // 1. 从redis中查询信息
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         // 2. 判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3. 存在, 直接返回
-            return JSONUtil.toBean(json, type);
-        }
-
-        // 判断命中的是否为空值
-        if (json!=null) {
+        if (bytes != null && bytes.length > 0) {
+            // 3. 存在, 直接返回, 解码失败按未命中处理
+            R r = cacheCodec.decode(bytes, type);
+            if (r != null) {
+                localCache.put(key, r);
+                return r;
+            }
+        } else if (bytes != null) {
+            // 命中的是空值
             return null;
         }
 
-        // 4. 实现缓存重建
-        // 4.1. 获取互斥锁
+        // 4. 实现缓存重建, 同一个JVM中同一个key只有一个线程去获取互斥锁和查询数据库, 其他线程等待这个线程的结果
         String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        return singleFlight(key, type, () -> loadWithLock(key, lockKey,
+                cached -> cacheCodec.decode(cached, type),
+                () -> {
+                    R r = dbFallback.apply(id);
+                    // 5. 不存在, 将空值写入redis
+                    if (r == null) {
+                        setNull(key);
+                        return null;
+                    }
+                    // 6. 存在, 写入redis
+                    this.set(key, r, time, unit);
+                    localCache.put(key, r);
+                    return r;
+                }));
+    }
+
+    /**
+     * 合并同一个JVM中对同一个key的并发加载(single-flight)
+     * 第一个到达的线程执行加载, 其他线程拿到同一个CompletableFuture等待结果, 加载完成立刻返回, 不需要休眠重试
+     *
+     * @param key    缓存key
+     * @param type   返回值类型
+     * @param loader 加载逻辑
+     * @return 加载结果
+     */
+    private <R> R singleFlight(String key, Class<R> type, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlightLoads.putIfAbsent(key, future);
+        if (existing != null) {
+            // 其他线程正在加载, 等待结果
+            try {
+                return type.cast(existing.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2. 判断锁获取成功
-            if (!isLock) {
-                // 4.3. 锁获取失败, 休眠重试
-                Thread.sleep(50);
-                return queryWithMutex(prefix, id, type, dbFallback, time, unit);
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 在分布式互斥锁的保护下加载数据, 每个JVM中只有single-flight选出来的一个线程会执行这里
+     * 获取锁失败说明其他节点正在重建, 间隔一段时间查询redis, 直到其他节点重建完成或者自己拿到锁
+     *
+     * @param key     缓存key
+     * @param lockKey 锁key
+     * @param parser  解析redis中已有的缓存
+     * @param loader  查询数据库并写入缓存
+     * @return 数据
+     */
+    private <R> R loadWithLock(String key, String lockKey, Function<byte[], R> parser, Supplier<R> loader) {
+        while (true) {
+            if (tryLock(lockKey)) {
+                try {
+                    // 拿到锁之后再检查一次缓存, 有可能其他节点刚刚重建完成; 解码失败的旧数据直接重建
+                    byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+                    if (bytes != null && bytes.length == 0) {
+                        return null;
+                    }
+                    R r = bytes == null ? null : parser.apply(bytes);
+                    return r != null ? r : loader.get();
+                } finally {
+                    unlock(lockKey);
+                }
             }
-            // 4.4. 锁获取成功
-            r = dbFallback.apply(id);
-            // 5. 不存在, 返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回报错信息
-                return null;
+            try {
+                Thread.sleep(REBUILD_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                if (bytes.length == 0) {
+                    return null;
+                }
+                R r = parser.apply(bytes);
+                if (r != null) {
+                    return r;
+                }
             }
-            // 6. 存在, 写入redis
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 7. 释放锁
-            unlock(lockKey);
         }
-        // 8. 返回
-        return r;
+    }
+
+    /**
+     * 解析逻辑过期的缓存, 只取出数据, 不判断是否过期
+     */
+    private <R> R parseLogicalData(byte[] bytes, Class<R> type) {
+        RedisData redisData = cacheCodec.decodeLogical(bytes, type);
+        return redisData == null ? null : type.cast(redisData.getData());
     }
 
 
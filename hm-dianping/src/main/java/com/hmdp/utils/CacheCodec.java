@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码
+ * <p>
+ * TODO:
+ *      - 缓存值统一通过CacheCodec转换为字节数组再存入redis, 空字节数组表示缓存的空值(解决缓存穿透), 编解码实现不会产生空字节数组.
+ *      - 解码时根据第一个字节识别格式, json格式和二进制格式都能读取, 切换编码方式期间redis中两种格式可以同时存在.
+ *      - 解码失败(例如类结构发生了变化)返回null, 调用者按未命中处理, 重新查询数据库写入新格式.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码
+     *
+     * @param value 值
+     * @return 字节数组
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     *
+     * @param bytes 字节数组
+     * @param type  类型
+     * @return 值, 无法解码时返回null
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码带逻辑过期时间的值
+     *
+     * @param redisData 逻辑过期时间和值
+     * @return 字节数组
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码带逻辑过期时间的值, 返回的RedisData中data已经是type类型, 不需要再次转换
+     *
+     * @param bytes 字节数组
+     * @param type  data的类型
+     * @return RedisData, 无法解码时返回null
+     */
+    <T> RedisData decodeLogical(byte[] bytes, Class<T> type);
+}
@@ -0,0 +1,206 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.FeedArchive;
+import com.hmdp.mapper.FeedArchiveMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 收件箱归档, 限制每个收件箱在redis中的条数
+ * <p>
+ * TODO:
+ *      - 之前收件箱(feed:{userId})只增不减, 活跃用户的收件箱无限增长, redis内存也无限增长.
+ *      - 定时SCAN全部收件箱, 每一批key用一个pipeline ZCARD, 超过inbox-capacity的收件箱:
+ *        1. ZRANGE取出最早的 (条数 - inbox-capacity) 条, INSERT IGNORE写入tb_feed_archive, 收件箱加入feed:archived,
+ *           更新归档水位(feed:archive:watermark, 已经归档的最大时间戳);
+ *        2. 执行feed_trim.lua删除这些笔记(ZREM具体的笔记id, 不按排名删除, 归档期间新推送的笔记不会被误删),
+ *           删除之后条数不超过zset-max-listpack-entries时重写收件箱, 恢复listpack编码.
+ *        先写数据库再删redis, 中途失败时下一轮重做, 主键保证不会重复归档.
+ *      - inbox-capacity默认128, 和zset-max-listpack-entries(128)相同, 收件箱一直是紧凑编码. 翻页超过redis中最早的一条之后
+ *        FeedClient从归档中按(user_id, ts)倒序继续查询. 内存对比见hm-dianping-benchmark的FeedMemoryReport.
+ *      - 多个节点通过分布式锁保证同时只有一个节点在归档.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class FeedArchiver {
+
+    // 每条INSERT写入的行数
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_FEED_TRIM_FILENAME));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    // 定时归档的线程, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskScheduler feedArchiveScheduler;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FeedArchiveMapper feedArchiveMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 每个收件箱在redis中保留的条数
+    @Value("${hmdp.feed.inbox-capacity:128}")
+    private int inboxCapacity;
+
+    // 归档间隔(毫秒), 小于等于0表示不归档
+    @Value("${hmdp.feed.archive-interval:600000}")
+    private long archiveInterval;
+
+    // 每一批扫描的收件箱个数(SCAN COUNT, 一个pipeline中的ZCARD个数)
+    @Value("${hmdp.feed.archive-chunk-size:500}")
+    private int chunkSize;
+
+    @PostConstruct
+    public void init() {
+        if (archiveInterval > 0) {
+            feedArchiveScheduler.scheduleWithFixedDelay(this::archiveQuietly,
+                    Instant.now().plusMillis(archiveInterval), Duration.ofMillis(archiveInterval));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        feedArchiveScheduler.shutdown();
+    }
+
+    private void archiveQuietly() {
+        try {
+            archive();
+        } catch (Exception e) {
+            log.error("收件箱归档异常", e);
+        }
+    }
+
+    /**
+     * 归档所有超过上限的收件箱
+     *
+     * @return 归档的笔记条数, 其他节点正在归档时返回0
+     */
+    public long archive() {
+        RLock lock = redissonClient.getLock(FEED_ARCHIVE_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            long archived = 0;
+            List<String> keys = new ArrayList<>(chunkSize);
+            // 只匹配feed:{userId}, 不包括发件箱、大V集合等其他feed:开头的key
+            ScanOptions options = ScanOptions.scanOptions().match(FEED_KEY + "[0-9]*").count(chunkSize).build();
+            try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+                while (cursor.hasNext() && !Thread.currentThread().isInterrupted()) {
+                    keys.add(cursor.next());
+                    if (keys.size() >= chunkSize) {
+                        archived += archive(keys);
+                        keys.clear();
+                    }
+                }
+            }
+            if (!keys.isEmpty()) {
+                archived += archive(keys);
+            }
+            if (archived > 0) {
+                log.info("收件箱归档完成, 归档{}条", archived);
+            }
+            return archived;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一批收件箱, 一个pipeline查询条数
+     */
+    private long archive(List<String> keys) {
+        List<Object> cards = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.zSetCommands().zCard(bytes(key));
+            }
+            return null;
+        });
+        long archived = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            long card = ((Number) cards.get(i)).longValue();
+            if (card > inboxCapacity) {
+                archived += archiveInbox(keys.get(i), card - inboxCapacity);
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * 归档一个收件箱最早的overflow条
+     */
+    private long archiveInbox(String key, long overflow) {
+        Long userId = Long.valueOf(key.substring(FEED_KEY.length()));
+        Set<ZSetOperations.TypedTuple<String>> oldest = stringRedisTemplate.opsForZSet().rangeWithScores(key, 0, overflow - 1);
+        if (oldest == null || oldest.isEmpty()) {
+            return 0;
+        }
+        List<FeedArchive> archives = new ArrayList<>(oldest.size());
+        List<String> args = new ArrayList<>(oldest.size() + 1);
+        args.add(String.valueOf(inboxCapacity));
+        double watermark = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : oldest) {
+            watermark = Math.max(watermark, tuple.getScore());
+            archives.add(new FeedArchive()
+                    .setUserId(userId)
+                    .setTs(tuple.getScore().longValue())
+                    .setBlogId(Long.valueOf(tuple.getValue())));
+            args.add(tuple.getValue());
+        }
+        // 1. 先写数据库
+        for (int i = 0; i < archives.size(); i += INSERT_BATCH_SIZE) {
+            feedArchiveMapper.insertIgnoreBatch(archives.subList(i, Math.min(i + INSERT_BATCH_SIZE, archives.size())));
+        }
+        stringRedisTemplate.opsForSet().add(FEED_ARCHIVED_KEY, userId.toString());
+        // 补拉可能写入比水位早的笔记, 之后再归档时水位不能后退. 持有归档锁, 读取和写入之间没有其他节点修改
+        Double previous = stringRedisTemplate.opsForZSet().score(FEED_ARCHIVE_WATERMARK_KEY, userId.toString());
+        if (previous == null || watermark > previous) {
+            stringRedisTemplate.opsForZSet().add(FEED_ARCHIVE_WATERMARK_KEY, userId.toString(), watermark);
+        }
+        // 2. 再删除redis中已经归档的笔记
+        stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(key), args.toArray());
+        return archives.size();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
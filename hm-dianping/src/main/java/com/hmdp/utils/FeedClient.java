@@ -0,0 +1,346 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.FeedArchive;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FeedArchiveMapper;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 关注动态的推拉结合
+ * <p>
+ * TODO:
+ *      - 之前发布笔记时在请求线程中查询全部粉丝, 每个粉丝一次ZADD, 粉丝很多的作者发布一次要几秒.
+ *      - 每篇笔记都写入作者的发件箱(feed:out:{userId}, 最多保留FEED_OUTBOX_CAPACITY条).
+ *      - 粉丝数达到big-v-threshold的作者加入大V集合, 不再推送, 粉丝读取时从大V的发件箱拉取, 和自己的收件箱合并.
+ *        大V不会因为粉丝减少而退出集合, 否则已经只写在发件箱中的笔记粉丝就看不到了.
+ *      - 发布笔记时只写入一条推送任务(XADD stream.feed), 写发件箱和推送都由FeedFanoutWorker异步完成:
+ *        按id分页查询粉丝(keyset分页, 使用索引idx_follow_user), 每页用一次ZMSCORE过滤掉active-days天内没有读取过关注动态的粉丝,
+ *        再用一个pipeline写入活跃粉丝的收件箱. 发布笔记的耗时和粉丝数无关, 写入量只和活跃粉丝数有关.
+ *      - 不活跃的用户回来读取关注动态时, 从关注的每个作者的发件箱补拉最近FEED_CATCH_UP_SIZE条到收件箱,
+ *        不超过归档水位的笔记已经(或者可能已经)归档, 不再写入收件箱.
+ *      - 收件箱只保留最新的inbox-capacity条, 更早的由FeedArchiver移到tb_feed_archive, 翻页超过redis中最早的一条之后从归档中继续.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class FeedClient {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private FeedArchiveMapper feedArchiveMapper;
+
+    // 粉丝数达到这个值的作者不再推送, 粉丝读取时拉取
+    @Value("${hmdp.feed.big-v-threshold:5000}")
+    private long bigVThreshold;
+
+    // 多少天内读取过关注动态的用户是活跃用户
+    @Value("${hmdp.feed.active-days:7}")
+    private int activeDays;
+
+    // 推送时每页查询的粉丝数, 也是一个pipeline中的ZADD个数
+    @Value("${hmdp.feed.fanout-batch-size:500}")
+    private int fanoutBatchSize;
+
+    /**
+     * 发布笔记: 写入一条推送任务, 由FeedFanoutWorker写入发件箱并推送给活跃粉丝
+     *
+     * @param authorId  作者id
+     * @param blogId    笔记id
+     * @param timestamp 发布时间
+     */
+    public void publish(Long authorId, Long blogId, long timestamp) {
+        Map<String, String> message = new LinkedHashMap<>(4);
+        message.put("authorId", authorId.toString());
+        message.put("blogId", blogId.toString());
+        message.put("timestamp", String.valueOf(timestamp));
+        // XADD stream.feed * authorId .. blogId .. timestamp ..
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(FEED_FANOUT_STREAM).ofMap(message));
+    }
+
+    /**
+     * 写入作者的发件箱, 只保留最新的FEED_OUTBOX_CAPACITY条
+     */
+    void writeOutbox(Long authorId, Long blogId, long timestamp) {
+        String outbox = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.zSetCommands().zAdd(bytes(outbox), timestamp, bytes(blogId.toString()));
+            // 只保留最新的FEED_OUTBOX_CAPACITY条
+            connection.zSetCommands().zRemRange(bytes(outbox), 0, -FEED_OUTBOX_CAPACITY - 1);
+            return null;
+        });
+    }
+
+    /**
+     * 查询关注动态的一页, 合并自己的收件箱和关注的大V的发件箱
+     *
+     * @param userId 用户id
+     * @param max    上一页的最小时间戳
+     * @param offset 上一页中和最小时间戳相同的个数
+     * @param count  每页条数
+     * @return 按时间倒序的笔记id和时间戳
+     */
+    public List<ZSetOperations.TypedTuple<String>> read(Long userId, long max, int offset, int count) {
+        Set<String> bigVs = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_BIG_V_KEY);
+        if (bigVs == null || bigVs.isEmpty()) {
+            return inboxPage(userId, max, offset, count);
+        }
+        // 每个来源都从max开始取offset + count条, 合并之后再跳过offset条
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String authorId : bigVs) {
+                connection.zSetCommands().zRevRangeByScoreWithScores(bytes(FEED_OUTBOX_KEY + authorId), 0, max, 0, offset + count);
+            }
+            return null;
+        });
+        // 大V的笔记可能在推送之后才成为大V, 收件箱和发件箱中都有, 按笔记id去重
+        Map<String, Double> merged = new HashMap<>();
+        for (ZSetOperations.TypedTuple<String> tuple : inboxPage(userId, max, 0, offset + count)) {
+            merged.put(tuple.getValue(), tuple.getScore());
+        }
+        for (Object result : results) {
+            for (Object o : (Set<?>) result) {
+                ZSetOperations.TypedTuple<?> tuple = (ZSetOperations.TypedTuple<?>) o;
+                merged.put(String.valueOf(tuple.getValue()), tuple.getScore());
+            }
+        }
+        // 和ZREVRANGEBYSCORE的顺序一致: 时间戳倒序, 时间戳相同时笔记id倒序
+        List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>(merged.size());
+        merged.forEach((id, score) -> tuples.add(new DefaultTypedTuple<>(id, score)));
+        tuples.sort(Comparator.comparing(ZSetOperations.TypedTuple<String>::getScore)
+                .thenComparing(ZSetOperations.TypedTuple::getValue).reversed());
+        int from = Math.min(offset, tuples.size());
+        return tuples.subList(from, Math.min(from + count, tuples.size()));
+    }
+
+    /**
+     * 查询收件箱的一页, redis中不够一页时从归档中继续
+     * <p>
+     * 归档中的笔记都比redis中的早, 把两者看成一个序列: redis中时间戳不超过max的有k条, 归档从第 offset - k 条开始取.
+     * 只有收件箱归档过的用户才查询数据库. 两者衔接处按笔记id去重, 归档之后又被补拉回收件箱的笔记只返回一次.
+     * </p>
+     */
+    private List<ZSetOperations.TypedTuple<String>> inboxPage(Long userId, long max, int offset, int count) {
+        String inbox = FEED_KEY + userId;
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(inbox, 0, max, offset, count);
+        List<ZSetOperations.TypedTuple<String>> page = tuples == null ? new ArrayList<>() : new ArrayList<>(tuples);
+        if (page.size() >= count) {
+            return page;
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.setCommands().sIsMember(bytes(FEED_ARCHIVED_KEY), bytes(userId.toString()));
+            connection.zSetCommands().zCount(bytes(inbox), 0, max);
+            return null;
+        });
+        if (!Boolean.TRUE.equals(results.get(0))) {
+            return page;
+        }
+        long skip = Math.max(0, offset - ((Number) results.get(1)).longValue());
+        // 多取page.size()条, 跳过和redis中重复的笔记之后仍然能凑满一页
+        List<FeedArchive> archives = feedArchiveMapper.selectList(new LambdaQueryWrapper<FeedArchive>()
+                .eq(FeedArchive::getUserId, userId)
+                .le(FeedArchive::getTs, max)
+                .orderByDesc(FeedArchive::getTs, FeedArchive::getBlogId)
+                .last("limit " + skip + ", " + count));
+        Set<String> seen = new HashSet<>();
+        for (ZSetOperations.TypedTuple<String> tuple : page) {
+            seen.add(tuple.getValue());
+        }
+        for (FeedArchive archive : archives) {
+            if (page.size() >= count) {
+                break;
+            }
+            if (seen.add(archive.getBlogId().toString())) {
+                page.add(new DefaultTypedTuple<>(archive.getBlogId().toString(), archive.getTs().doubleValue()));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 取关之后从归档中删除关注用户的笔记, redis收件箱中的由remove_feed.lua删除
+     *
+     * @param userId  用户id
+     * @param blogIds 取关用户的笔记id
+     */
+    public void removeArchived(Long userId, List<Long> blogIds) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_ARCHIVED_KEY, userId.toString()))) {
+            return;
+        }
+        feedArchiveMapper.delete(new LambdaQueryWrapper<FeedArchive>()
+                .eq(FeedArchive::getUserId, userId)
+                .in(FeedArchive::getBlogId, blogIds));
+    }
+
+    /**
+     * 用户读取关注动态时记录活跃时间, 不活跃的用户回来时从发件箱补拉
+     *
+     * @param userId 用户id
+     */
+    public void touch(Long userId) {
+        long now = System.currentTimeMillis();
+        Double last = stringRedisTemplate.opsForZSet().score(FEED_ACTIVE_KEY, userId.toString());
+        if (last != null && now - last < FEED_ACTIVE_REFRESH) {
+            return;
+        }
+        if (last == null || last < activeSince(now)) {
+            catchUp(userId);
+        }
+        stringRedisTemplate.opsForZSet().add(FEED_ACTIVE_KEY, userId.toString(), now);
+    }
+
+    /**
+     * 关注或者取关之后更新作者的粉丝数, 粉丝数没有缓存时不处理, 下次使用时从数据库统计
+     *
+     * @param authorId 作者id
+     * @param isFollow 是否关注
+     */
+    public void followed(Long authorId, boolean isFollow) {
+        String key = FEED_FANS_KEY + authorId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            stringRedisTemplate.opsForValue().increment(key, isFollow ? 1 : -1);
+        }
+    }
+
+    /**
+     * 判断作者是否是大V, 粉丝数第一次达到阈值时加入大V集合
+     */
+    boolean isBigV(Long authorId) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_V_KEY, authorId.toString()))) {
+            return true;
+        }
+        if (fans(authorId) < bigVThreshold) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().add(FEED_BIG_V_KEY, authorId.toString());
+        log.info("作者粉丝数达到{}, 改为拉模式, authorId={}", bigVThreshold, authorId);
+        return true;
+    }
+
+    private long fans(Long authorId) {
+        String key = FEED_FANS_KEY + authorId;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        if (cached != null) {
+            return Long.parseLong(cached);
+        }
+        Integer count = followMapper.selectCount(new LambdaQueryWrapper<Follow>().eq(Follow::getFollowUserId, authorId));
+        long fans = count == null ? 0 : count;
+        stringRedisTemplate.opsForValue().setIfAbsent(key, String.valueOf(fans), FEED_FANS_TTL, TimeUnit.HOURS);
+        return fans;
+    }
+
+    /**
+     * 按id分页查询粉丝, WHERE follow_user_id = ? AND id > lastId ORDER BY id LIMIT n
+     */
+    List<Follow> followers(Long authorId, long lastId) {
+        return followMapper.selectList(new LambdaQueryWrapper<Follow>()
+                .select(Follow::getId, Follow::getUserId)
+                .eq(Follow::getFollowUserId, authorId)
+                .gt(Follow::getId, lastId)
+                .orderByAsc(Follow::getId)
+                .last("limit " + fanoutBatchSize));
+    }
+
+    /**
+     * 推送时每页查询的粉丝数
+     */
+    int fanoutBatchSize() {
+        return fanoutBatchSize;
+    }
+
+    /**
+     * ZMSCORE feed:active userId1 userId2 ..., 一页粉丝一次查询
+     */
+    List<Long> activeFollowers(List<Follow> follows, long since) {
+        Object[] userIds = follows.stream().map(follow -> follow.getUserId().toString()).toArray();
+        List<Double> scores = stringRedisTemplate.opsForZSet().score(FEED_ACTIVE_KEY, userIds);
+        List<Long> actives = new ArrayList<>();
+        for (int i = 0; i < follows.size(); i++) {
+            Double score = scores == null ? null : scores.get(i);
+            if (score != null && score >= since) {
+                actives.add(follows.get(i).getUserId());
+            }
+        }
+        return actives;
+    }
+
+    /**
+     * 清理不活跃的用户, 活跃用户集合不会无限增长
+     *
+     * @return 活跃时间的下限
+     */
+    long pruneInactive() {
+        long since = activeSince(System.currentTimeMillis());
+        stringRedisTemplate.opsForZSet().removeRangeByScore(FEED_ACTIVE_KEY, 0, since - 1);
+        return since;
+    }
+
+    /**
+     * 从关注的普通作者的发件箱补拉最近的笔记, 大V的笔记读取时拉取, 不写入收件箱.
+     * 不超过归档水位的笔记不写入, 否则收件箱和归档中都有, 翻页时重复
+     */
+    private void catchUp(Long userId) {
+        Set<String> authors = stringRedisTemplate.opsForSet().difference(FOLLOWS_KEY + userId, FEED_BIG_V_KEY);
+        if (authors == null || authors.isEmpty()) {
+            return;
+        }
+        Double watermark = stringRedisTemplate.opsForZSet().score(FEED_ARCHIVE_WATERMARK_KEY, userId.toString());
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String authorId : authors) {
+                connection.zSetCommands().zRevRangeWithScores(bytes(FEED_OUTBOX_KEY + authorId), 0, FEED_CATCH_UP_SIZE - 1);
+            }
+            return null;
+        });
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        for (Object result : results) {
+            for (Object o : (Set<?>) result) {
+                ZSetOperations.TypedTuple<?> tuple = (ZSetOperations.TypedTuple<?>) o;
+                if (watermark != null && tuple.getScore() <= watermark) {
+                    continue;
+                }
+                tuples.add(new DefaultTypedTuple<>(String.valueOf(tuple.getValue()), tuple.getScore()));
+            }
+        }
+        if (!tuples.isEmpty()) {
+            stringRedisTemplate.opsForZSet().add(FEED_KEY + userId, tuples);
+        }
+    }
+
+    private long activeSince(long now) {
+        return now - TimeUnit.DAYS.toMillis(activeDays);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
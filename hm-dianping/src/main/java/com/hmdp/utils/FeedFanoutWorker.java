@@ -0,0 +1,325 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Follow;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 笔记推送任务的消费者
+ * <p>
+ * TODO:
+ *      - 发布笔记只写入一条推送任务(stream.feed), 请求线程的耗时是一次INSERT + 一次XADD, 和粉丝数无关.
+ *      - 每条任务: 写入作者的发件箱; 大V直接完成; 否则按id分页查询粉丝(WHERE follow_user_id = ? AND id > lastId ORDER BY id LIMIT n),
+ *        每页过滤出活跃粉丝之后用一个pipeline写入收件箱, 同一个pipeline中把这一页最后一个tb_follow.id写入进度(feed:fanout:checkpoint).
+ *      - 全部推送完成之后XACK + XDEL, 删除进度, stream中只保留没有完成的任务.
+ *      - 节点宕机或者停止时任务留在pending-list中, 空闲超过fanout-reclaim-min-idle之后被其他消费者XCLAIM, 从进度之后继续推送,
+ *        不会从头再推一遍. ZADD是幂等的, 进度之前重复推送的最后一页不影响结果.
+ *      - 投递次数达到fanout-max-deliveries的任务放弃推送, 笔记已经在发件箱中, 粉丝回来时仍然能补拉到.
+ *      - 容器关闭时(SmartLifecycle.stop)不再读取新任务, 推送完当前一页之后退出, 和VoucherOrderServiceImpl的订单消费者一样.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class FeedFanoutWorker implements SmartLifecycle {
+
+    // 每次XREADGROUP读取的任务数
+    private static final int READ_COUNT = 10;
+    // 每次XPENDING读取的条数
+    private static final int PENDING_PAGE_SIZE = 100;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FeedClient feedClient;
+
+    @Resource
+    private ThreadPoolTaskExecutor feedFanoutExecutor;
+
+    // 每个节点消费推送任务的线程数
+    @Value("${hmdp.feed.fanout-consumers:1}")
+    private int fanoutConsumers;
+
+    // 任务空闲超过多久(毫秒)由其他消费者认领
+    @Value("${hmdp.feed.fanout-reclaim-min-idle:60000}")
+    private long reclaimMinIdle;
+
+    // 投递次数达到这个值之后放弃推送
+    @Value("${hmdp.feed.fanout-max-deliveries:5}")
+    private long maxDeliveries;
+
+    // 关闭时等待消费者退出的最长时间(毫秒)
+    @Value("${hmdp.feed.shutdown-timeout:10000}")
+    private long shutdownTimeout;
+
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        createGroup();
+        running = true;
+        int consumers = Math.max(1, fanoutConsumers);
+        for (int i = 0; i < consumers; i++) {
+            feedFanoutExecutor.execute(new FanoutConsumer(SeckillOrderReclaimer.consumerName(consumerName, "feed-" + i)));
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        ThreadPoolExecutor executor = feedFanoutExecutor.getThreadPoolExecutor();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                log.warn("推送任务消费者在{}ms内没有结束, 中断消费者线程", shutdownTimeout);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2;
+    }
+
+    /**
+     * XGROUP CREATE stream.feed g1 0 MKSTREAM, 已经存在时忽略
+     */
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    bytes(FEED_FANOUT_STREAM), FEED_FANOUT_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // BUSYGROUP, 消费者组已经存在
+            log.debug("消费者组已存在: {}", e.getMessage());
+        }
+    }
+
+    private class FanoutConsumer implements Runnable {
+        private final Consumer consumer;
+        private long lastReclaim = System.currentTimeMillis();
+
+        private FanoutConsumer(String name) {
+            this.consumer = Consumer.from(FEED_FANOUT_GROUP, name);
+        }
+
+        @Override
+        public void run() {
+            // 启动时先处理自己上次没有完成的任务
+            handlePendingList();
+            while (running && !Thread.currentThread().isInterrupted()) {
+                try {
+                    if (System.currentTimeMillis() - lastReclaim >= reclaimMinIdle) {
+                        reclaim();
+                        lastReclaim = System.currentTimeMillis();
+                    }
+                    // XREADGROUP GROUP g1 consumer COUNT 10 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            consumer,
+                            StreamReadOptions.empty().count(READ_COUNT).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FEED_FANOUT_STREAM, ReadOffset.lastConsumed()));
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    for (MapRecord<String, Object, Object> record : list) {
+                        if (!fanOut(record.getId(), record.getValue())) {
+                            break;
+                        }
+                    }
+                } catch (Exception e) {
+                    if (!running && Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    // 没有完成的任务留在pending-list中, 空闲时间到了之后重新认领
+                    log.error("推送笔记异常", e);
+                }
+            }
+            drain();
+        }
+
+        /**
+         * 处理自己pending-list中的任务, 只扫描一遍, 失败的留给reclaim
+         */
+        private void handlePendingList() {
+            try {
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(PENDING_PAGE_SIZE),
+                        StreamOffset.create(FEED_FANOUT_STREAM, ReadOffset.from("0")));
+                if (list == null) {
+                    return;
+                }
+                for (MapRecord<String, Object, Object> record : list) {
+                    if (!fanOut(record.getId(), record.getValue())) {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("处理pending-list推送任务异常", e);
+            }
+        }
+
+        /**
+         * 认领整个消费者组中空闲超过reclaimMinIdle的任务, 投递次数过多的放弃
+         */
+        private void reclaim() {
+            PendingMessages messages = stringRedisTemplate.opsForStream().pending(
+                    FEED_FANOUT_STREAM, FEED_FANOUT_GROUP, Range.unbounded(), PENDING_PAGE_SIZE);
+            List<RecordId> retry = new ArrayList<>();
+            for (PendingMessage message : messages) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < reclaimMinIdle) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    log.error("推送任务投递{}次仍然失败, 放弃推送, id={}", message.getTotalDeliveryCount(), message.getIdAsString());
+                    finish(message.getId());
+                } else {
+                    retry.add(message.getId());
+                }
+            }
+            if (retry.isEmpty()) {
+                return;
+            }
+            // XCLAIM带min-idle, 多个节点同时认领时只有一个成功
+            RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions
+                    .minIdle(Duration.ofMillis(reclaimMinIdle))
+                    .ids(retry.toArray(new RecordId[0]));
+            List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.streamCommands().xClaim(bytes(FEED_FANOUT_STREAM), FEED_FANOUT_GROUP, consumer.getName(), options));
+            if (records == null) {
+                return;
+            }
+            for (ByteRecord record : records) {
+                MapRecord<String, String, String> claimed = record.deserialize(
+                        StringRedisSerializer.UTF_8, StringRedisSerializer.UTF_8, StringRedisSerializer.UTF_8);
+                if (!fanOut(claimed.getId(), claimed.getValue())) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 停止之后自己的pending-list为空时从消费者组中删除自己, 否则保留, 由其他消费者认领
+         */
+        private void drain() {
+            try {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(FEED_FANOUT_STREAM, consumer, Range.unbounded(), 1L);
+                if (pending.isEmpty()) {
+                    stringRedisTemplate.opsForStream().deleteConsumer(FEED_FANOUT_STREAM, consumer);
+                }
+            } catch (Exception e) {
+                log.warn("删除消费者失败, consumer={}", consumer.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 执行一条推送任务, 从进度之后继续
+     *
+     * @param id      消息id
+     * @param message 消息内容
+     * @return false表示正在关闭, 任务没有完成
+     */
+    private boolean fanOut(RecordId id, Map<?, ?> message) {
+        Long authorId = Long.valueOf(String.valueOf(message.get("authorId")));
+        Long blogId = Long.valueOf(String.valueOf(message.get("blogId")));
+        long timestamp = Long.parseLong(String.valueOf(message.get("timestamp")));
+        String field = id.getValue();
+
+        Object checkpoint = stringRedisTemplate.opsForHash().get(FEED_FANOUT_CHECKPOINT_KEY, field);
+        long lastId = 0;
+        if (checkpoint == null) {
+            // 第一次执行: 写入发件箱, 大V不推送
+            feedClient.writeOutbox(authorId, blogId, timestamp);
+            if (feedClient.isBigV(authorId)) {
+                finish(id);
+                return true;
+            }
+        } else {
+            lastId = Long.parseLong(checkpoint.toString());
+        }
+
+        long since = feedClient.pruneInactive();
+        byte[] member = bytes(blogId.toString());
+        int batchSize = feedClient.fanoutBatchSize();
+        while (true) {
+            if (!running) {
+                return false;
+            }
+            List<Follow> follows = feedClient.followers(authorId, lastId);
+            if (follows.isEmpty()) {
+                break;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+            List<Long> actives = feedClient.activeFollowers(follows, since);
+            long progress = lastId;
+            // 一页活跃粉丝的ZADD和进度在同一个pipeline中
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long userId : actives) {
+                    connection.zSetCommands().zAdd(bytes(FEED_KEY + userId), timestamp, member);
+                }
+                connection.hashCommands().hSet(bytes(FEED_FANOUT_CHECKPOINT_KEY), bytes(field), bytes(String.valueOf(progress)));
+                return null;
+            });
+            if (follows.size() < batchSize) {
+                break;
+            }
+        }
+        finish(id);
+        return true;
+    }
+
+    /**
+     * XACK + XDEL, 删除进度
+     */
+    private void finish(RecordId id) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.streamCommands().xAck(bytes(FEED_FANOUT_STREAM), FEED_FANOUT_GROUP, id);
+            connection.streamCommands().xDel(bytes(FEED_FANOUT_STREAM), id);
+            connection.hashCommands().hDel(bytes(FEED_FANOUT_CHECKPOINT_KEY), bytes(id.getValue()));
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
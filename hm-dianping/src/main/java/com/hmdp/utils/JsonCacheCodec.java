@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * json格式的缓存编解码, 和之前直接使用JSONUtil存入字符串的格式完全一致, 解码失败时返回null, 按未命中处理
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        // 读到二进制格式时交给二进制解码, 从二进制回退到json期间也能正常读取
+        if (BinaryCacheCodec.isBinary(bytes)) {
+            return BinaryCacheCodec.decodeBinary(bytes, type);
+        }
+        return decodeJson(bytes, type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        if (BinaryCacheCodec.isBinary(bytes)) {
+            return BinaryCacheCodec.decodeBinaryLogical(bytes, type);
+        }
+        return decodeJsonLogical(bytes, type);
+    }
+
+    static <T> T decodeJson(byte[] bytes, Class<T> type) {
+        try {
+            return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+        } catch (Exception e) {
+            log.debug("json缓存解码失败, 按未命中处理, type={}", type.getName(), e);
+            return null;
+        }
+    }
+
+    static <T> RedisData decodeJsonLogical(byte[] bytes, Class<T> type) {
+        try {
+            RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            // 不是逻辑过期格式(普通缓存值)或者缺少字段, 和二进制解码一样按未命中处理
+            if (!(redisData.getData() instanceof JSONObject) || redisData.getExpireTime() == null) {
+                return null;
+            }
+            // 这里面反序列化取出来的字符串本质是JSONObject 然后再次转换为实体类
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            return redisData;
+        } catch (Exception e) {
+            log.debug("json缓存解码失败, 按未命中处理, type={}", type.getName(), e);
+            return null;
+        }
+    }
+}
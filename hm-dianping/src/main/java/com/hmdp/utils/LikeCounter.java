@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 点赞计数, 先写redis, 定时合并写入数据库
+ * <p>
+ * TODO:
+ *      - 之前每次点赞: ZSCORE判断是否点过赞, UPDATE tb_blog SET liked = liked ± 1, 再ZADD/ZREM, 三步不是原子的,
+ *        热门笔记的点赞都在竞争同一行的行锁, 点赞的耗时取决于数据库.
+ *      - 现在点赞只执行blog_like.lua: 修改点赞用户集合, 同时HINCRBY blog:like:delta {blogId} ±1, 记录点赞有变化的笔记, 点赞以redis为准.
+ *      - 定时(like-flush-interval)把blog:like:delta改名为blog:like:flushing, 跳过点赞又取消(变化为0)的笔记,
+ *        每flush-batch-size个笔记一个pipeline ZCARD取出点赞人数, 一条UPDATE ... CASE id写入数据库, 完成之后删除blog:like:flushing.
+ *        写入的是点赞人数而不是变化量, 重复写入结果不变: 写入失败或者UPDATE之后、删除之前宕机时, 下一轮重做blog:like:flushing,
+ *        数据库的点赞数不会偏离. 改名之后的点赞写入新的blog:like:delta, 下一轮再写入.
+ *      - 数据库的点赞数最多落后一个间隔, 查询笔记时两个hash中有变化的笔记使用点赞人数(见BlogServiceImpl.hydrate), 展示的点赞数是准确的.
+ *      - 多个节点通过分布式锁保证同时只有一个节点在写入, 应用关闭时再写入一次.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class LikeCounter {
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_BLOG_LIKE_FILENAME));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    // 定时写入数据库的线程, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskScheduler likeFlushScheduler;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 写入数据库的间隔(毫秒), 小于等于0表示不定时写入
+    @Value("${hmdp.blog.like-flush-interval:5000}")
+    private long flushInterval;
+
+    // 每条UPDATE写入的笔记个数
+    @Value("${hmdp.blog.like-flush-batch-size:500}")
+    private int flushBatchSize;
+
+    @PostConstruct
+    public void init() {
+        if (flushInterval > 0) {
+            likeFlushScheduler.scheduleWithFixedDelay(this::flushQuietly,
+                    Instant.now().plusMillis(flushInterval), Duration.ofMillis(flushInterval));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 等待正在执行的一次写入完成, 再写入剩下的
+        likeFlushScheduler.shutdown();
+        // 关闭之前把还没有写入的点赞数写入数据库
+        flushQuietly();
+    }
+
+    /**
+     * 点赞或者取消点赞, 已经点过赞时取消
+     *
+     * @param blogId 笔记id
+     * @param userId 用户id
+     * @return true表示点赞, false表示取消点赞
+     */
+    public boolean toggle(Long blogId, Long userId) {
+        Long liked = stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + blogId, BLOG_LIKE_DELTA_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), blogId.toString());
+        return liked != null && liked == 1L;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("点赞数写入数据库异常", e);
+        }
+    }
+
+    /**
+     * 把redis中点赞有变化的笔记的点赞人数写入数据库
+     *
+     * @return 写入的笔记个数, 其他节点正在写入时返回0
+     */
+    public int flush() {
+        RLock lock = redissonClient.getLock(BLOG_LIKE_FLUSH_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            int flushed = 0;
+            // 1. 上一轮没有写完的blog:like:flushing先写入, 之后再写入新的变化
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKE_FLUSHING_KEY))) {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKE_DELTA_KEY))) {
+                    return 0;
+                }
+                stringRedisTemplate.renameIfAbsent(BLOG_LIKE_DELTA_KEY, BLOG_LIKE_FLUSHING_KEY);
+            }
+            // 2. 取出有变化的笔记, 跳过点赞又取消的笔记, 每一批写入点赞人数
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(BLOG_LIKE_FLUSHING_KEY);
+            List<Long> blogIds = new ArrayList<>(flushBatchSize);
+            for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                if (Long.parseLong(entry.getValue().toString()) == 0) {
+                    continue;
+                }
+                blogIds.add(Long.valueOf(entry.getKey().toString()));
+                if (blogIds.size() >= flushBatchSize) {
+                    flushed += flush(blogIds);
+                    blogIds.clear();
+                }
+            }
+            if (!blogIds.isEmpty()) {
+                flushed += flush(blogIds);
+            }
+            // 3. 全部写入之后删除
+            stringRedisTemplate.delete(BLOG_LIKE_FLUSHING_KEY);
+            if (flushed > 0) {
+                log.debug("点赞数写入数据库, {}个笔记", flushed);
+            }
+            return flushed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一个pipeline ZCARD取出一批笔记的点赞人数, 一条UPDATE写入
+     */
+    private int flush(List<Long> blogIds) {
+        List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long blogId : blogIds) {
+                connection.zSetCommands().zCard((BLOG_LIKED_KEY + blogId).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        Map<Long, Long> likes = new LinkedHashMap<>(blogIds.size() * 2);
+        for (int i = 0; i < blogIds.size(); i++) {
+            likes.put(blogIds.get(i), ((Number) counts.get(i)).longValue());
+        }
+        return blogMapper.updateLikedBatch(likes);
+    }
+}
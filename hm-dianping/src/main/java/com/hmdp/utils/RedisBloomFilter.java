@@ -0,0 +1,275 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_OLD_TTL;
+
+/**
+ * 基于redis bitmap的布隆过滤器
+ * <p>
+ * TODO:
+ *      - 位数组存放在redis中(bloom:{name}:{version}), 通过SETBIT/GETBIT维护, 多个节点共享同一个位数组.
+ *        bloom:{name}:current中存放的是当前生效的版本号, 重建时写入新版本, 写完之后再切换版本号, 重建期间不影响查询.
+ *      - 每个节点在内存中保存一份位数组的镜像, 判断只使用镜像, 不访问redis, 大量不存在的id也不会打到redis上.
+ *        其他节点新增的数据通过发布订阅同步到镜像, 错过消息时(例如消息发出时正在重新加载)由定时重新加载补上.
+ *      - 添加元素时从bloom:{name}:current读取当前版本再SETBIT, 不依赖本地加载状态; 写入期间版本被切换时再写入新版本.
+ *      - 哈希函数使用MurmurHash128, 再用两个64位哈希值模拟k个哈希函数: hash_i = h1 + i * h2
+ *      - 位数组大小 m = -n * ln(p) / (ln2)^2, 哈希函数个数 k = m / n * ln2, n为预计插入数量, p为期望误判率
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 过滤器名称, 例如shop blog user
+     */
+    private final String name;
+
+    /**
+     * 位数组大小, 按8对齐, 方便和redis的字节数组对应
+     */
+    private final long numBits;
+
+    /**
+     * 哈希函数个数
+     */
+    private final int numHashes;
+
+    /**
+     * 当前生效的位数组key
+     */
+    private volatile String bitmapKey;
+
+    /**
+     * 本地镜像, 字节的位顺序和redis的bitmap保持一致(offset 0 是第一个字节的最高位), 为null表示还没有加载
+     */
+    private volatile byte[] mirror;
+
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String name, long expectedInsertions, double fpp) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.name = name;
+        long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = (bits + 7) / 8 * 8;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 是否已经加载完成, 加载完成之前所有判断都返回存在, 不能挡住正常请求
+     *
+     * @return true表示已加载
+     */
+    public boolean isReady() {
+        return mirror != null;
+    }
+
+    /**
+     * 判断元素是否可能存在
+     *
+     * @param id 元素
+     * @return false表示一定不存在, true表示可能存在
+     */
+    public boolean mightContain(Object id) {
+        byte[] local = mirror;
+        if (local == null) {
+            return true;
+        }
+        // 本地镜像判断不存在直接返回, 不访问redis. 其他节点新增的数据通过发布订阅同步到镜像(addLocal), 错过的消息由定时重新加载补上
+        for (long offset : offsets(id)) {
+            if (!getBit(local, offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 只设置本地镜像, 收到其他节点新增数据的消息时调用
+     *
+     * @param id 元素
+     */
+    public void addLocal(Object id) {
+        byte[] local = mirror;
+        if (local != null) {
+            setBits(local, offsets(id));
+        }
+    }
+
+    /**
+     * 添加元素, 新增数据之后调用
+     *
+     * @param id 元素
+     */
+    public void add(Object id) {
+        long[] offsets = offsets(id);
+        // 每次都从redis读取当前版本: 刚启动的节点还在异步加载(bitmapKey为null), 其他节点重建之后本节点也还没有收到重新加载的消息
+        String key = resolveKey();
+        if (key == null) {
+            // redis中还没有位数组, 第一次构建切换版本之后的补扫会扫描到这条数据
+            return;
+        }
+        setBits(key, offsets);
+        // 写入期间版本被切换(其他节点刚好重建完成), 再写入一次新版本, 旧版本过期之后不会丢失
+        String latest = resolveKey();
+        if (latest != null && !latest.equals(key)) {
+            setBits(latest, offsets);
+            key = latest;
+        }
+        if (!key.equals(bitmapKey)) {
+            // 本地镜像是旧版本, 重新加载, 否则镜像判断不存在时会到旧版本中确认
+            reload();
+        }
+        byte[] local = mirror;
+        if (local != null) {
+            setBits(local, offsets);
+        }
+    }
+
+    private String resolveKey() {
+        String version = stringRedisTemplate.opsForValue().get(currentKey());
+        return version == null ? null : BLOOM_FILTER_KEY + name + RedisConstants.DELIMITER + version;
+    }
+
+    private void setBits(String key, long[] offsets) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.stringCommands().setBit(rawKey, offset, true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 从redis中加载当前版本的位数组到本地镜像
+     *
+     * @return false表示redis中还没有位数组, 需要重建
+     */
+    public boolean reload() {
+        String version = stringRedisTemplate.opsForValue().get(currentKey());
+        if (version == null) {
+            return false;
+        }
+        String key = BLOOM_FILTER_KEY + name + RedisConstants.DELIMITER + version;
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+        if (bytes == null) {
+            return false;
+        }
+        // redis的bitmap只会分配到最后一个被设置的位, 这里补齐到完整长度
+        byte[] local = new byte[(int) (numBits / 8)];
+        System.arraycopy(bytes, 0, local, 0, Math.min(bytes.length, local.length));
+        this.bitmapKey = key;
+        this.mirror = local;
+        return true;
+    }
+
+    /**
+     * 重建布隆过滤器, 重建期间旧版本照常使用, 重建完成后切换版本
+     * <p>
+     * 使用keyset分页(id > lastId order by id limit n)扫描全部id, 在本地构建好位数组后一次SET写入redis,
+     * 切换版本之后再补扫一次扫描期间新增的id, 旧版本保留一段时间后自动过期, 防止其他节点还在使用旧版本
+     * </p>
+     *
+     * @param nextPage 分页查询, 参数为上一页最后一个id, 返回下一页的id(按id升序), 返回空集合表示扫描结束
+     */
+    public void rebuild(Function<Long, List<Long>> nextPage) {
+        byte[] local = new byte[(int) (numBits / 8)];
+        long lastId = scan(nextPage, 0L, id -> setBits(local, offsets(id)));
+
+        String version = String.valueOf(System.currentTimeMillis());
+        String key = BLOOM_FILTER_KEY + name + RedisConstants.DELIMITER + version;
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), local));
+
+        // 切换版本
+        String oldKey = bitmapKey;
+        stringRedisTemplate.opsForValue().set(currentKey(), version);
+        this.bitmapKey = key;
+        this.mirror = local;
+        if (oldKey != null && !oldKey.equals(key)) {
+            stringRedisTemplate.expire(oldKey, BLOOM_FILTER_OLD_TTL, TimeUnit.MINUTES);
+        }
+
+        // 补扫扫描期间新增的数据, 这些数据有可能被写入到了旧版本中
+        scan(nextPage, lastId, this::add);
+        log.info("布隆过滤器{}重建完成, 版本{}, 位数组大小{}, 哈希函数个数{}, 当前误判率{}",
+                name, version, numBits, numHashes, falsePositiveRate());
+    }
+
+    /**
+     * 根据本地镜像中已经置为1的位数估算当前的误判率: (置1位数 / 总位数) ^ k
+     *
+     * @return 误判率, 未加载时返回1
+     */
+    public double falsePositiveRate() {
+        byte[] local = mirror;
+        if (local == null) {
+            return 1.0;
+        }
+        long bitCount = 0;
+        for (byte b : local) {
+            bitCount += Integer.bitCount(b & 0xFF);
+        }
+        return Math.pow((double) bitCount / numBits, numHashes);
+    }
+
+    private long scan(Function<Long, List<Long>> nextPage, long fromId, Consumer<Long> action) {
+        long lastId = fromId;
+        List<Long> ids;
+        while (!(ids = nextPage.apply(lastId)).isEmpty()) {
+            ids.forEach(action);
+            lastId = ids.get(ids.size() - 1);
+        }
+        return lastId;
+    }
+
+    private String currentKey() {
+        return BLOOM_FILTER_KEY + name + ":current";
+    }
+
+    private long[] offsets(Object id) {
+        long[] hash = MurmurHash.hash128(id.toString());
+        long[] offsets = new long[numHashes];
+        long combined = hash[0];
+        for (int i = 0; i < numHashes; i++) {
+            // 取正数再取模
+            offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+
+    private static boolean getBit(byte[] bytes, long offset) {
+        return (bytes[(int) (offset >>> 3)] & (0x80 >>> (offset & 7))) != 0;
+    }
+
+    /**
+     * 设置本地位数组, 写入很少, 直接加锁避免同一个字节的并发写丢失
+     */
+    private static void setBits(byte[] bytes, long[] offsets) {
+        synchronized (bytes) {
+            for (long offset : offsets) {
+                bytes[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+            }
+        }
+    }
+}
@@ -12,23 +12,152 @@ public class RedisConstants {
     public static final Long CACHE_NULL_TTL = 2L;
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "Cache:Shop:";
+    // 用户基本信息(UserDTO)缓存
+    public static final String CACHE_USER_KEY = "Cache:User:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    // 本地缓存(L1)的容量和过期时间(秒), 过期时间不宜过长, 本地缓存只兜住热点key
+    public static final int LOCAL_CACHE_CAPACITY = 1024;
+    public static final Long LOCAL_CACHE_TTL = 30L;
+    // 缓存失效广播频道, 消息内容为被删除的key
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    // 布隆过滤器, 位数组key为 bloom:{name}:{version}
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String BLOOM_FILTER_SHOP = "shop";
+    public static final String BLOOM_FILTER_BLOG = "blog";
+    public static final String BLOOM_FILTER_USER = "user";
+    // 预计插入数量和期望误判率, 100万数据 1%误判率大约占用1.2MB
+    public static final long BLOOM_FILTER_EXPECTED_INSERTIONS = 1000000L;
+    public static final double BLOOM_FILTER_FPP = 0.01;
+    // 重建时每次从数据库扫描的id个数
+    public static final int BLOOM_FILTER_SCAN_BATCH = 1000;
+    // 本地镜像定时重新加载的间隔(分钟)
+    public static final Long BLOOM_FILTER_RELOAD_INTERVAL = 5L;
+    // 重建之后旧版本位数组的保留时间(分钟)
+    public static final Long BLOOM_FILTER_OLD_TTL = 10L;
+    // 重建完成通知其他节点重新加载的频道, 消息内容为过滤器名称
+    public static final String BLOOM_FILTER_RELOAD_CHANNEL = "bloom:reload";
+    // 新增数据的广播频道, 消息内容为 过滤器名称:id, 收到之后设置本地镜像
+    public static final String BLOOM_FILTER_ADD_CHANNEL = "bloom:add";
+    public static final String LOCK_BLOOM_FILTER_KEY = "Lock:Bloom:";
+    public static final Long LOCK_BLOOM_FILTER_TTL = 10L;
 
     public static final String LOCK_SHOP_KEY = "Lock:Shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    // 其他节点持有重建锁时, 查询重建结果的间隔(毫秒)
+    public static final long REBUILD_RETRY_INTERVAL = 50L;
+    // 概率提前刷新的系数, 大于1更倾向于提前刷新, 小于1更倾向于接近过期时再刷新
+    public static final double XFETCH_BETA = 1.0;
+    // 本地缓存在逻辑过期之前 delta * beta * 这个倍数 就失效, 让这段时间内的读取回到redis参与提前刷新的判断;
+    // 随机间隔超过这个倍数的概率是e^-4(约2%)
+    public static final int XFETCH_LOCAL_WINDOW = 4;
 
     // redis的分隔符
     public static final String DELIMITER = ":";
 
     // redis自增
     public static final String INCREMENT = "Icr:";
+    // 号段用掉这个比例之后预取下一个号段
+    public static final double ID_SEGMENT_PREFETCH_RATIO = 0.8;
 
     // 优惠券订单前缀
     public static final String SECKILL_ORDER = "Seckill:Order:";
 
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    // 下单用户集合, 和seckill.lua中保持一致
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 秒杀订单消息队列
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    // 秒杀订单消费者组
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    // 秒杀订单死信stream, 多次投递仍然处理失败的订单消息
+    public static final String SECKILL_ORDER_DLQ_STREAM = "stream.orders.dlq";
+    // 消费者累计处理的订单数, 用来计算整个集群的消费速度
+    public static final String SECKILL_ORDER_CONSUMED_KEY = "seckill:consumed";
+    // 每个优惠券的秒杀请求令牌桶, hash结构, tokens: 剩余令牌, ts: 上次补充令牌的时间
+    public static final String SECKILL_BUCKET_KEY = "seckill:bucket:";
+    // 消费速度的下限(每秒订单数), 刚启动还没有统计到消费速度时按照这个值估算排队时间
+    public static final long SECKILL_MIN_DRAIN_RATE = 100L;
+    // 秒杀订单状态, 和seckill.lua中保持一致
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:status:";
+    // 订单状态保存时间(分钟), 和seckill.lua中保持一致
+    public static final Long SECKILL_ORDER_STATUS_TTL = 30L;
+    // 订单状态变化广播频道
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:status";
+    // 长轮询订单状态的默认和最大等待时间(毫秒)
+    public static final long SECKILL_ORDER_POLL_TIMEOUT = 30000L;
+    public static final long SECKILL_ORDER_POLL_MAX_TIMEOUT = 60000L;
+    // 秒杀库存对账锁, 同时只有一个节点在对账
+    public static final String SECKILL_RECONCILE_LOCK_KEY = "lock:seckill:reconcile";
+    // 秒杀优惠券描述, hash结构, begin/end: 秒杀开始/结束时间(毫秒), limit: 每人限购数量, status: 状态. 和seckill.lua中保持一致
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    // 本地缓存秒杀优惠券描述的时间(秒)
+    public static final Long SECKILL_VOUCHER_CACHE_TTL = 10L;
+    // 每人限购计数, hash结构, 按照用户id分桶: seckill:quota:{voucherId}:{userId % buckets}, field为用户id, value为已购数量. 和seckill.lua中保持一致
+    public static final String SECKILL_QUOTA_KEY = "seckill:quota:";
+    // 订单seq计数, 结构和每人限购计数相同, 只增不减: 限购计数在归还时会减少, 用它分配seq会和已经落库的订单重复. 和seckill.lua中保持一致
+    public static final String SECKILL_SEQ_KEY = "seckill:seq:";
+    // 限购模式下已经卖出的数量, 代替下单用户集合的SCARD用于库存对账. 和seckill.lua中保持一致
+    public static final String SECKILL_SOLD_KEY = "seckill:sold:";
+    // 活动限购计数, 结构和每人限购计数相同, 固定分桶个数. 和seckill.lua中保持一致
+    public static final String SECKILL_CAMPAIGN_KEY = "seckill:campaign:";
+    public static final int SECKILL_CAMPAIGN_BUCKETS = 1024;
+    // 租用库存模式下各个节点租走还没有卖出的库存, hash结构, field为节点名称, value为库存数量
+    public static final String SECKILL_LEASE_KEY = "seckill:lease:";
+    // 持有租约的节点心跳, 过期之后由库存对账收回这个节点的租约
+    public static final String SECKILL_LESSEE_KEY = "seckill:lessee:";
+    // 心跳间隔(毫秒)和心跳过期时间(秒)
+    public static final long SECKILL_LEASE_HEARTBEAT_INTERVAL = 1000L;
+    public static final Long SECKILL_LESSEE_TTL = 10L;
+    // 分片库存模式下优惠券的分片个数, 不存在表示没有分片
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    // 本地缓存分片个数的时间(秒)
+    public static final Long SECKILL_SHARDS_CACHE_TTL = 10L;
+    // 售罄广播频道, 消息内容为优惠券id, 和seckill.lua中保持一致
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    // 补充库存广播频道, 收到之后清除本地售罄标记
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
+    // 本地售罄标记的有效时间(秒), 错过补充库存消息时最多这么久之后恢复
+    public static final Long SECKILL_SOLD_OUT_TTL = 300L;
+    // 点赞用户集合, zset结构, member为用户id, score为点赞时间. 点赞以redis为准, 数据库的点赞数由LikeCounter定时写入
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    // 点赞人数有变化、还没有写入数据库的笔记, hash结构, field为笔记id, value为点赞数变化(为0表示点赞又取消, 不需要写入)
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like:delta";
+    // 正在写入数据库的笔记, 写入时把BLOG_LIKE_DELTA_KEY改名为这个key, 写入完成之后删除
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:flushing";
+    // 写入点赞数的锁, 同时只有一个节点在写入
+    public static final String BLOG_LIKE_FLUSH_LOCK_KEY = "lock:blog:like:flush";
+    // 收件箱, zset结构, member为笔记id, score为发布时间
     public static final String FEED_KEY = "feed:";
+    // 关注的用户集合
+    public static final String FOLLOWS_KEY = "follows:";
+    // 发件箱, 结构和收件箱相同, 每个作者最多保留FEED_OUTBOX_CAPACITY条
+    public static final String FEED_OUTBOX_KEY = "feed:out:";
+    public static final int FEED_OUTBOX_CAPACITY = 1000;
+    // 大V集合, 粉丝数超过阈值的作者不推送, 粉丝读取时从发件箱拉取
+    public static final String FEED_BIG_V_KEY = "feed:bigv";
+    // 活跃用户, zset结构, score为最近一次读取关注动态的时间
+    public static final String FEED_ACTIVE_KEY = "feed:active";
+    // 活跃时间的刷新间隔(毫秒), 间隔内重复读取不再更新
+    public static final long FEED_ACTIVE_REFRESH = 60000L;
+    // 不活跃的用户回来时, 从每个关注用户的发件箱补拉的条数
+    public static final int FEED_CATCH_UP_SIZE = 50;
+    // 作者的粉丝数, 过期之后重新从数据库统计(小时)
+    public static final String FEED_FANS_KEY = "feed:fans:";
+    public static final Long FEED_FANS_TTL = 24L;
+    // 笔记推送任务stream和消费者组, 消息内容为authorId, blogId, timestamp
+    public static final String FEED_FANOUT_STREAM = "stream.feed";
+    public static final String FEED_FANOUT_GROUP = "g1";
+    // 推送进度, hash结构, field为推送任务的消息id, value为已经推送到的tb_follow.id
+    public static final String FEED_FANOUT_CHECKPOINT_KEY = "feed:fanout:checkpoint";
+    // 收件箱有归档的用户, 翻页超过redis中最早的一条之后才需要查询归档
+    public static final String FEED_ARCHIVED_KEY = "feed:archived";
+    // 归档水位, zset结构, member为用户id, score为已经归档的最大时间戳. 补拉时不写入不超过水位的笔记, 否则和归档重复
+    public static final String FEED_ARCHIVE_WATERMARK_KEY = "feed:archive:watermark";
+    // 收件箱归档锁, 同时只有一个节点在归档
+    public static final String FEED_ARCHIVE_LOCK_KEY = "lock:feed:archive";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
 }
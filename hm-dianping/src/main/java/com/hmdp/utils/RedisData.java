@@ -11,4 +11,7 @@ public class RedisData {
 
     // 能够存放任意对象 例如Shop实体
     private Object data;
+
+    // 重建缓存的耗时(毫秒), 概率提前刷新时使用, 普通逻辑过期为null
+    private Long delta;
 }
@@ -1,15 +1,42 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.hmdp.utils.RedisConstants.ID_SEGMENT_PREFETCH_RATIO;
 import static com.hmdp.utils.RedisConstants.INCREMENT;
 
 
+/**
+ * 全局唯一id生成器
+ * <p>
+ * TODO:
+ *      - id结构: 最高位为符号位, 接着31位为时间戳(秒), 最后32位为当天的序列号, 序列号来自redis中按天自增的计数器.
+ *      - 号段模式: 每次INCR都要访问一次redis, 秒杀时每个请求都要为了一个id走一次网络.
+ *        号段模式下每次通过INCRBY N从计数器中租用N个序列号到本地, 本地使用AtomicLong无锁分配,
+ *        用掉一定比例之后异步预取下一个号段, 当前号段用完时直接切换, 基本不需要等待redis.
+ *      - 号段和日期绑定, 跨天之后丢弃前一天没用完的号段, 保证同一秒内的序列号一定来自同一天的计数器, 不会和其他节点重复.
+ *      - 同一个节点生成的id单调递增, 节点重启时没有用完的序列号会被浪费掉, 每天有42亿个序列号, 不影响使用.
+ * </p>
+ */
+@Slf4j
 @Component
 public class RedisIdTool {
 
@@ -23,11 +50,47 @@ public class RedisIdTool {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    // 预取号段的线程, 见ExecutorConfig. 不使用号段时为null
+    private final ThreadPoolTaskExecutor idSegmentExecutor;
+
     private final StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 号段大小, 小于等于1表示不使用号段, 每次都INCR
+     */
+    private final int segmentSize;
+
+    /**
+     * 当前日期, 跨天时才重新计算, 不需要每次都格式化日期
+     */
+    private volatile Day day;
+
+    /**
+     * 业务前缀 -> 号段
+     */
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
     // 这是通过构造方法的方式去初始化StringRedisTemplate
     public RedisIdTool(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, 0, null);
+    }
+
+    @Autowired
+    public RedisIdTool(StringRedisTemplate stringRedisTemplate,
+                       @Value("${hmdp.id.segment-size:1000}") int segmentSize,
+                       @Qualifier("idSegmentExecutor") ThreadPoolTaskExecutor idSegmentExecutor) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentSize = idSegmentExecutor == null ? 0 : segmentSize;
+        this.idSegmentExecutor = idSegmentExecutor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (idSegmentExecutor != null) {
+            idSegmentExecutor.shutdown();
+        }
     }
 
     /**
@@ -37,9 +100,9 @@ public class RedisIdTool {
      */
     public long nextId(String keyPrefix) {
         // 1- 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSeconds = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSeconds - BEGIN_TIMESTAMP;
+        long millis = System.currentTimeMillis();
+        Day today = dayOf(millis);
+        long timestamp = today.epochSecond(millis) - BEGIN_TIMESTAMP;
 
         // 2- 生成序列号
         /*
@@ -53,11 +116,157 @@ public class RedisIdTool {
                 下面提示可能会报出Null错误, 其实不会: 因为他认为在拆箱的过程中, 如果说你redis库中压根不存在key=A的键, 那么自增可能会出现Null,
                 实际上经过实践得出, 如果redis的库中没有对应key为A的键, redis会自动创建, 并且赋值为1.
          */
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        long count = stringRedisTemplate.opsForValue().increment(INCREMENT + keyPrefix + date);
+        long count;
+        if (segmentSize > 1) {
+            count = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(today.date);
+        } else {
+            count = stringRedisTemplate.opsForValue().increment(INCREMENT + keyPrefix + today.date);
+        }
 
         // 3- 拼接 -> 算法设计为 最高位为1(符号位)  紧接着31位为时间戳  后32为为序列号. 因此需要先将时间戳左移32位 然后再进行或运算
         return timestamp << COUNT_BITS | count;
     }
 
+    private Day dayOf(long millis) {
+        Day d = day;
+        if (d == null || millis < d.startMillis || millis >= d.endMillis) {
+            d = new Day(millis);
+            day = d;
+        }
+        return d;
+    }
+
+    /**
+     * 一天的信息, 包括格式化好的日期和这一天的起止时间
+     */
+    private static final class Day {
+        private final String date;
+        private final long startMillis;
+        private final long endMillis;
+        /**
+         * 时区偏移, 时间戳和之前一样是 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)
+         */
+        private final long offsetSeconds;
+
+        private Day(long millis) {
+            ZoneId zone = ZoneId.systemDefault();
+            Instant instant = Instant.ofEpochMilli(millis);
+            LocalDate localDate = LocalDateTime.ofInstant(instant, zone).toLocalDate();
+            this.date = localDate.format(DATE_FORMATTER);
+            this.startMillis = localDate.atStartOfDay(zone).toInstant().toEpochMilli();
+            this.endMillis = localDate.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            this.offsetSeconds = zone.getRules().getOffset(instant).getTotalSeconds();
+        }
+
+        private long epochSecond(long millis) {
+            return Math.floorDiv(millis, 1000L) + offsetSeconds;
+        }
+    }
+
+    /**
+     * 租用的一段序列号 [start, end)
+     */
+    private static final class Segment {
+        private final String date;
+        private final long end;
+        /**
+         * 分配到这个序列号时预取下一个号段, 只有一个线程会分配到
+         */
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+        /**
+         * 预取的下一个号段, 挂在当前号段上, 切换之后才设置的预取结果不会被使用, 保证号段只会越来越大
+         */
+        private volatile CompletableFuture<Segment> next;
+
+        private Segment(String date, long start, long end, long prefetchAt) {
+            this.date = date;
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    /**
+     * 一个业务前缀的号段缓冲, 当前号段 + 预取的下一个号段
+     */
+    private final class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count < segment.end) {
+                        if (count == segment.prefetchAt) {
+                            prefetch(segment, date);
+                        }
+                        return count;
+                    }
+                }
+                // 号段用完或者已经跨天, 切换号段
+                switchSegment(segment, date);
+            }
+        }
+
+        /**
+         * 先把future挂到当前号段上再提交任务, 切换号段时能看到正在进行的预取, 等待它完成而不是再租用一个号段
+         */
+        private void prefetch(Segment segment, String date) {
+            CompletableFuture<Segment> future = new CompletableFuture<>();
+            segment.next = future;
+            try {
+                idSegmentExecutor.execute(() -> {
+                    try {
+                        future.complete(lease(date));
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 正在关闭, 切换号段时同步获取
+                future.completeExceptionally(e);
+            }
+        }
+
+        private synchronized void switchSegment(Segment old, String date) {
+            if (current != old) {
+                // 其他线程已经切换过了
+                return;
+            }
+            Segment segment = null;
+            CompletableFuture<Segment> future = old == null ? null : old.next;
+            if (future != null) {
+                try {
+                    segment = future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    log.warn("预取号段失败, 重新获取, keyPrefix={}", keyPrefix, e.getCause());
+                }
+            }
+            // 预取的号段属于前一天, 丢弃
+            if (segment == null || !segment.date.equals(date)) {
+                segment = lease(date);
+            }
+            current = segment;
+        }
+
+        /**
+         * INCRBY一次租用segmentSize个序列号
+         */
+        private Segment lease(String date) {
+            long end = stringRedisTemplate.opsForValue().increment(INCREMENT + keyPrefix + date, segmentSize);
+            long start = end - segmentSize + 1;
+            return new Segment(date, start, end + 1, start + (long) (segmentSize * ID_SEGMENT_PREFETCH_RATIO));
+        }
+    }
+
 }
@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Collections;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀请求准入控制
+ * <p>
+ * TODO:
+ *      - 秒杀接口来者不拒, 数据库跟不上时stream.orders越积越多, 用户拿到了订单id, 订单却要几分钟之后才落库.
+ *      - 排队控制: 每秒采样一次stream的积压(lag + pending-list)和整个集群的消费速度(消费者累计处理数的增量, 指数平滑),
+ *        预计排队时间 = 积压 / 消费速度, 超过max-backlog-seconds时直接在本地拒绝, 返回"排队人数过多, 请稍后重试".
+ *        判断只读本地变量, 被拒绝的请求不会访问redis. 消费者追上之后自动恢复放行.
+ *      - 限流: 每个优惠券一个redis令牌桶, 所有节点共享, 按照rate-limit的速度放行, 允许rate-burst个突发请求.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class SeckillAdmissionControl {
+
+    private static final DefaultRedisScript<Long> TOKEN_BUCKET_SCRIPT;
+    static {
+        TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>();
+        TOKEN_BUCKET_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_TOKEN_BUCKET_FILENAME));
+        TOKEN_BUCKET_SCRIPT.setResultType(Long.class);
+    }
+
+    // 采样间隔(毫秒)
+    private static final long SAMPLE_INTERVAL = 1000L;
+    // 消费速度的平滑系数, 越大越看重最近一次采样
+    private static final double DRAIN_RATE_ALPHA = 0.3;
+
+    // 采样线程, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskScheduler seckillAdmissionScheduler;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillOrderReclaimer seckillOrderReclaimer;
+
+    @Value("${hmdp.seckill.rate-limit:0}")
+    private long rateLimit;
+
+    @Value("${hmdp.seckill.rate-burst:200}")
+    private long rateBurst;
+
+    @Value("${hmdp.seckill.max-backlog-seconds:10}")
+    private long maxBacklogSeconds;
+
+    /**
+     * 积压的订单消息数
+     */
+    private volatile long backlog;
+
+    /**
+     * 整个集群每秒消费的订单数
+     */
+    private volatile double drainRate;
+
+    /**
+     * 是否接受新的秒杀请求
+     */
+    private volatile boolean accepting = true;
+
+    private long lastConsumed = -1;
+    private long lastSampleAt;
+
+    @PostConstruct
+    public void init() {
+        if (maxBacklogSeconds > 0) {
+            seckillAdmissionScheduler.scheduleWithFixedDelay(this::sampleQuietly, Duration.ofMillis(SAMPLE_INTERVAL));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        seckillAdmissionScheduler.shutdown();
+    }
+
+    /**
+     * 是否接受新的秒杀请求, 只读本地变量
+     *
+     * @return false表示排队时间过长, 应该直接拒绝
+     */
+    public boolean accepting() {
+        return accepting;
+    }
+
+    /**
+     * 从优惠券的令牌桶中取一个令牌
+     *
+     * @param voucherId 优惠券id
+     * @return true表示放行, 没有配置限流时总是放行
+     */
+    public boolean tryAcquire(Long voucherId) {
+        if (rateLimit <= 0) {
+            return true;
+        }
+        Long allowed = stringRedisTemplate.execute(TOKEN_BUCKET_SCRIPT,
+                Collections.singletonList(SECKILL_BUCKET_KEY + voucherId),
+                String.valueOf(rateLimit), String.valueOf(Math.max(1, rateBurst)));
+        return allowed != null && allowed == 1L;
+    }
+
+    /**
+     * 订单消息确认之后调用, 累加整个集群的消费数. 批量消费、pending-list、回收重试和死信都会确认消息, 都要调用
+     *
+     * @param count 订单数
+     */
+    public void consumed(int count) {
+        stringRedisTemplate.opsForValue().increment(SECKILL_ORDER_CONSUMED_KEY, count);
+    }
+
+    private void sampleQuietly() {
+        try {
+            sample();
+        } catch (Exception e) {
+            // 采样失败时保持上一次的判断
+            log.warn("秒杀准入采样失败: {}", e.getMessage());
+        }
+    }
+
+    private void sample() {
+        long now = System.currentTimeMillis();
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_ORDER_CONSUMED_KEY);
+        long consumed = value == null ? 0 : Long.parseLong(value);
+        if (lastConsumed >= 0 && now > lastSampleAt) {
+            double rate = Math.max(0, consumed - lastConsumed) * 1000.0 / (now - lastSampleAt);
+            drainRate = DRAIN_RATE_ALPHA * rate + (1 - DRAIN_RATE_ALPHA) * drainRate;
+        }
+        lastConsumed = consumed;
+        lastSampleAt = now;
+
+        backlog = seckillOrderReclaimer.queryLag() + seckillOrderReclaimer.queryPending();
+        // 刚启动或者空闲时消费速度接近0, 按照下限估算, 避免一有积压就拒绝
+        double capacity = maxBacklogSeconds * Math.max(drainRate, SECKILL_MIN_DRAIN_RATE);
+        boolean accept = backlog <= capacity;
+        if (accept != accepting) {
+            log.warn("秒杀准入{}: 积压={}, 消费速度={}/s", accept ? "恢复" : "关闭", backlog, (long) drainRate);
+        }
+        accepting = accept;
+    }
+
+    /**
+     * 当前积压的订单消息数
+     */
+    public long backlog() {
+        return backlog;
+    }
+
+    /**
+     * 整个集群每秒消费的订单数
+     */
+    public double drainRate() {
+        return drainRate;
+    }
+}
@@ -0,0 +1,396 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单stream的pending-list回收
+ * <p>
+ * TODO:
+ *      - 消费者读到消息之后宕机, 消息一直留在它的pending-list中, 没有其他消费者会处理; 一条处理不了的消息(毒消息)
+ *        会让消费者反复重试自己的pending-list, 后面的订单全部卡住.
+ *      - 每个节点定时扫描整个消费者组的pending-list(XPENDING), 空闲时间超过阈值的消息通过XCLAIM转给本节点逐条重试.
+ *        XCLAIM带min-idle, 多个节点同时扫描时只有一个节点能认领成功, 认领会让消息的投递次数加一.
+ *      - 投递次数达到上限的消息写入死信stream(stream.orders.dlq)之后确认, 不再阻塞订单处理, 由人工排查.
+ *        没有落库的订单归还redis中的库存和下单资格, 不会少卖, 用户也可以重新抢购.
+ *      - 统计积压(还没有投递的消息数)、pending-list大小、重试次数、死信次数, 通过stats查看.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class SeckillOrderReclaimer {
+
+    // 每次XPENDING读取的条数
+    private static final int PENDING_PAGE_SIZE = 100;
+    // 每一轮最多扫描的页数, 剩下的下一轮再处理
+    private static final int PENDING_MAX_PAGES = 10;
+    // 计算积压时最多XRANGE的条数, Redis 7之前XINFO GROUPS没有lag字段
+    private static final int LAG_SCAN_LIMIT = 10000;
+
+    // 定时扫描pending-list的线程, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskScheduler seckillReclaimScheduler;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    // SeckillAdmissionControl采样时依赖本类查询积压, 延迟注入避免循环依赖
+    @Lazy
+    @Resource
+    private SeckillAdmissionControl seckillAdmissionControl;
+
+    // 扫描间隔(毫秒)
+    @Value("${hmdp.seckill.reclaim-interval:5000}")
+    private long reclaimInterval;
+
+    // 消息空闲超过多久(毫秒)认为原来的消费者已经处理不了
+    @Value("${hmdp.seckill.reclaim-min-idle:30000}")
+    private long reclaimMinIdle;
+
+    // 投递次数达到这个值之后进入死信stream
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private long maxDeliveries;
+
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    private Consumer reclaimer;
+
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    private volatile long lag = -1;
+
+    // Redis 7之前没有lag字段, XRANGE数出来的积压缓存一个扫描间隔, 准入控制每秒采样时不会每次都XRANGE
+    private volatile long scannedLag;
+    private volatile long lagScannedAt;
+    private volatile long pending = -1;
+    private volatile double retryRate;
+
+    /**
+     * 本节点的消费者名称, 在消费者组中唯一
+     *
+     * @param configured 配置的名称前缀, 为空时使用 主机名-进程id
+     * @param suffix     后缀, 区分同一个节点的多个消费者
+     * @return 消费者名称
+     */
+    public static String consumerName(String configured, String suffix) {
+        String prefix = configured == null || configured.isEmpty()
+                ? ManagementFactory.getRuntimeMXBean().getName().replace('@', '-')
+                : configured;
+        return prefix + "-" + suffix;
+    }
+
+    @PostConstruct
+    public void init() {
+        reclaimer = Consumer.from(SECKILL_ORDER_GROUP, consumerName(consumerName, "reclaimer"));
+        seckillReclaimScheduler.scheduleWithFixedDelay(this::reclaimQuietly,
+                Instant.now().plusMillis(reclaimInterval), Duration.ofMillis(reclaimInterval));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        seckillReclaimScheduler.shutdown();
+    }
+
+    private void reclaimQuietly() {
+        try {
+            reclaim();
+        } catch (Exception e) {
+            // 不能抛出去, 否则定时任务就停了
+            log.error("回收pending-list异常", e);
+        }
+    }
+
+    /**
+     * 扫描一轮pending-list
+     */
+    public void reclaim() {
+        long retriedBefore = retried.get();
+        long begin = System.currentTimeMillis();
+
+        String start = "-";
+        for (int page = 0; page < PENDING_MAX_PAGES; page++) {
+            PendingMessages messages = stringRedisTemplate.opsForStream().pending(
+                    SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, Range.closed(start, "+"), PENDING_PAGE_SIZE);
+            List<RecordId> retry = new ArrayList<>();
+            Map<RecordId, Long> dead = new LinkedHashMap<>();
+            String last = null;
+            for (PendingMessage message : messages) {
+                last = message.getIdAsString();
+                if (last.equals(start)) {
+                    // 上一页的最后一条
+                    continue;
+                }
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < reclaimMinIdle) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    dead.put(message.getId(), message.getTotalDeliveryCount());
+                } else {
+                    retry.add(message.getId());
+                }
+            }
+            deadLetter(dead);
+            retry(retry);
+            if (last == null || messages.size() < PENDING_PAGE_SIZE) {
+                break;
+            }
+            start = last;
+        }
+
+        refreshStats();
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin + reclaimInterval);
+        retryRate = (retried.get() - retriedBefore) * 1000.0 / elapsed;
+        if (pending > 0) {
+            log.info("秒杀订单stream: lag={}, pending={}, 重试速率={}/s, 死信={}", lag, pending, retryRate, deadLettered.get());
+        }
+    }
+
+    /**
+     * 认领消息之后逐条重试, 异常的消息留在本节点的pending-list中, 下一轮空闲时间到了之后再次认领;
+     * 处理完没有落库的订单确认之后归还库存和下单资格
+     */
+    private void retry(List<RecordId> ids) {
+        for (ByteRecord record : claim(ids)) {
+            reclaimed.incrementAndGet();
+            retried.incrementAndGet();
+            try {
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(fields(record), new VoucherOrder(), true);
+                boolean persisted = voucherOrderService.createVoucherOrder(voucherOrder);
+                seckillOrderStatus.complete(Collections.singletonMap(voucherOrder.getId(),
+                        persisted ? SeckillOrderStatus.PERSISTED : SeckillOrderStatus.FAILED));
+                stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, record.getId());
+                seckillAdmissionControl.consumed(1);
+                if (!persisted) {
+                    // 没有落库的订单确认之后归还redis中的库存和下单资格, 和死信的处理一样
+                    seckillStockClient.release(voucherOrder.getVoucherId(), voucherOrder.getUserId(), 1);
+                }
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.error("重试订单失败, id={}", record.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 认领消息之后写入死信stream并确认, 写入失败时不确认, 下一轮再处理.
+     * 没有落库的订单归还redis中的库存和下单资格, 用户可以重新抢购. 先确认再归还: 两步之间宕机只会少一个库存(由对账修复),
+     * 反过来宕机之后下一轮会再归还一次
+     */
+    private void deadLetter(Map<RecordId, Long> deliveries) {
+        for (ByteRecord record : claim(new ArrayList<>(deliveries.keySet()))) {
+            Long count = deliveries.get(record.getId());
+            Map<String, String> message = new LinkedHashMap<>(fields(record));
+            message.put("originId", record.getId().getValue());
+            message.put("deliveries", String.valueOf(count));
+            String orderId = message.get("id");
+            // 落库之后确认失败的消息也会投递多次, 这种订单不能归还
+            boolean persisted = orderId != null && voucherOrderService.getById(Long.valueOf(orderId)) != null;
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_STREAM, message);
+            if (orderId != null) {
+                seckillOrderStatus.complete(Collections.singletonMap(Long.valueOf(orderId),
+                        persisted ? SeckillOrderStatus.PERSISTED : SeckillOrderStatus.FAILED));
+            }
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, record.getId());
+            deadLettered.incrementAndGet();
+            seckillAdmissionControl.consumed(1);
+            log.error("订单消息投递{}次仍然失败, 写入死信stream, id={}, message={}", count, record.getId(), message);
+            if (!persisted && message.get("voucherId") != null && message.get("userId") != null) {
+                // 归还库存之后同时清除售罄标记
+                seckillStockClient.release(Long.valueOf(message.get("voucherId")), Long.valueOf(message.get("userId")), 1);
+            }
+        }
+    }
+
+    /**
+     * XCLAIM stream.orders g1 reclaimer min-idle id..., 只返回认领成功的消息
+     */
+    private List<ByteRecord> claim(List<RecordId> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions
+                .minIdle(Duration.ofMillis(reclaimMinIdle))
+                .ids(ids.toArray(new RecordId[0]));
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(bytes(SECKILL_ORDER_STREAM), SECKILL_ORDER_GROUP, reclaimer.getName(), options));
+        return records == null ? new ArrayList<>() : records;
+    }
+
+    /**
+     * 刷新积压和pending-list大小
+     */
+    private void refreshStats() {
+        pending = queryPending();
+        lag = queryLag();
+    }
+
+    /**
+     * 消费者组pending-list大小, 已经投递还没有确认的消息数
+     *
+     * @return pending-list大小
+     */
+    public long queryPending() {
+        return stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP).getTotalPendingMessages();
+    }
+
+    /**
+     * 积压, 还没有投递给任何消费者的消息数
+     *
+     * @return 积压的消息数, 消费者组不存在时返回0
+     */
+    public long queryLag() {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(SECKILL_ORDER_STREAM);
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            if (!SECKILL_ORDER_GROUP.equals(group.groupName())) {
+                continue;
+            }
+            Object value = group.getRaw().get("lag");
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            // 没有lag字段, 数一下最后投递的消息之后还有多少条, 一个扫描间隔之内使用上一次的结果
+            long now = System.currentTimeMillis();
+            if (now - lagScannedAt < reclaimInterval) {
+                return scannedLag;
+            }
+            String lastDelivered = group.lastDeliveredId();
+            List<MapRecord<String, Object, Object>> undelivered = stringRedisTemplate.opsForStream().range(
+                    SECKILL_ORDER_STREAM, Range.closed(lastDelivered, "+"), RedisZSetCommands.Limit.limit().count(LAG_SCAN_LIMIT));
+            long count = undelivered == null ? 0 : undelivered.size();
+            if (count > 0 && undelivered.get(0).getId().getValue().equals(lastDelivered)) {
+                count--;
+            }
+            scannedLag = count;
+            lagScannedAt = now;
+            return count;
+        }
+        return 0;
+    }
+
+    /**
+     * 还在stream中的订单的用户: 已经投递还没有确认(pending-list), 或者还没有投递. 从pending-list中最早的消息开始读到最后,
+     * 中间已经确认的消息也会读到, 只会让对账多等一轮
+     *
+     * @param voucherId 优惠券id
+     * @param pageSize  每次XRANGE读取的条数
+     * @return 用户id
+     */
+    public Set<Long> inFlightBuyers(Long voucherId, int pageSize) {
+        Set<Long> buyers = new HashSet<>();
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP);
+        String start = summary.getTotalPendingMessages() > 0 ? summary.minMessageId() : lastDeliveredId();
+        if (start == null) {
+            return buyers;
+        }
+        String voucher = voucherId.toString();
+        while (!Thread.currentThread().isInterrupted()) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                    SECKILL_ORDER_STREAM, Range.closed(start, "+"), RedisZSetCommands.Limit.limit().count(pageSize));
+            if (records == null || records.isEmpty()) {
+                break;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                Object userId = record.getValue().get("userId");
+                if (voucher.equals(String.valueOf(record.getValue().get("voucherId"))) && userId != null) {
+                    buyers.add(Long.valueOf(userId.toString()));
+                }
+            }
+            String last = records.get(records.size() - 1).getId().getValue();
+            if (records.size() < pageSize || last.equals(start)) {
+                break;
+            }
+            // 闭区间, 下一页的第一条是这一页的最后一条, 重复读一次没有影响
+            start = last;
+        }
+        return buyers;
+    }
+
+    /**
+     * 消费者组最后投递的消息id, 消费者组不存在时返回null
+     */
+    private String lastDeliveredId() {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(SECKILL_ORDER_STREAM);
+        for (int i = 0; i < groups.size(); i++) {
+            if (SECKILL_ORDER_GROUP.equals(groups.get(i).groupName())) {
+                return groups.get(i).lastDeliveredId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 统计信息
+     *
+     * @return lag: 积压, pending: pending-list大小, retryRate: 最近一轮每秒重试次数, 其余为累计次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("lag", lag);
+        stats.put("pending", pending);
+        stats.put("retryRate", retryRate);
+        stats.put("reclaimed", reclaimed.get());
+        stats.put("retried", retried.get());
+        stats.put("failed", failed.get());
+        stats.put("deadLettered", deadLettered.get());
+        return stats;
+    }
+
+    private static Map<String, String> fields(ByteRecord record) {
+        Map<String, String> fields = new HashMap<>();
+        record.getValue().forEach((k, v) -> fields.put(
+                new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+        return fields;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
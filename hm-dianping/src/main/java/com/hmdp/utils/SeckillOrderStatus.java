@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单状态
+ * <p>
+ * TODO:
+ *      - 秒杀接口返回订单id的时候订单还在stream里排队, 客户端只能轮询tb_voucher_order才知道订单有没有落库.
+ *      - 每个订单在redis中有一个状态: QUEUED(排队中, seckill.lua写入stream时一起写入), PERSISTED(已落库), FAILED(下单失败),
+ *        消费者提交事务之后更新状态, 并通过发布订阅广播给所有节点.
+ *      - 查询接口使用DeferredResult长轮询: 状态还是QUEUED时挂起请求, 不占用servlet线程, 收到广播之后返回, 超时返回当前状态.
+ *      - 状态key有过期时间, 过期之后查询不到, 和订单不存在一样处理.
+ *      - 状态key是hash, status字段保存状态, userId字段保存下单用户, 只有下单用户自己能查询, 其他用户查询和订单不存在一样处理.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String PERSISTED = "PERSISTED";
+    public static final String FAILED = "FAILED";
+
+    // 状态hash的字段
+    private static final String STATUS_FIELD = "status";
+    private static final String USER_FIELD = "userId";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 订单id -> 等待这个订单结果的请求
+     */
+    private final Map<Long, Set<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    public SeckillOrderStatus(StringRedisTemplate stringRedisTemplate,
+                              RedisMessageListenerContainer redisMessageListenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        // 消息格式: orderId=STATUS,orderId=STATUS,... 一批订单一条消息
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            for (String entry : new String(message.getBody(), StandardCharsets.UTF_8).split(",")) {
+                int i = entry.indexOf('=');
+                if (i > 0) {
+                    notifyWaiters(Long.valueOf(entry.substring(0, i)), entry.substring(i + 1));
+                }
+            }
+        }, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 订单进入排队, 分片库存模式下写入stream之前调用, 单库存模式在seckill.lua中写入
+     *
+     * @param orderId 订单id
+     * @param userId  下单用户id
+     */
+    public void queued(long orderId, long userId) {
+        String key = SECKILL_ORDER_STATUS_KEY + orderId;
+        Map<String, String> fields = new HashMap<>(4);
+        fields.put(STATUS_FIELD, QUEUED);
+        fields.put(USER_FIELD, String.valueOf(userId));
+        stringRedisTemplate.opsForHash().putAll(key, fields);
+        stringRedisTemplate.expire(key, SECKILL_ORDER_STATUS_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 消费者提交事务之后批量更新订单状态, 一次pipeline写入, 一条消息广播. 只修改status字段, 保留下单用户
+     *
+     * @param statuses 订单id -> 状态
+     */
+    public void complete(Map<Long, String> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        for (Map.Entry<Long, String> entry : statuses.entrySet()) {
+            if (message.length() > 0) {
+                message.append(',');
+            }
+            message.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, String> entry : statuses.entrySet()) {
+                byte[] key = bytes(SECKILL_ORDER_STATUS_KEY + entry.getKey());
+                connection.hashCommands().hSet(key, bytes(STATUS_FIELD), bytes(entry.getValue()));
+                connection.keyCommands().expire(key, ttl);
+            }
+            connection.publish(bytes(SECKILL_ORDER_STATUS_CHANNEL), bytes(message.toString()));
+            return null;
+        });
+    }
+
+    /**
+     * 查询订单状态
+     *
+     * @param orderId 订单id
+     * @return 状态, 不存在返回null
+     */
+    public String get(long orderId) {
+        Object status = stringRedisTemplate.opsForHash().get(SECKILL_ORDER_STATUS_KEY + orderId, STATUS_FIELD);
+        return status == null ? null : status.toString();
+    }
+
+    /**
+     * 订单是否属于这个用户
+     *
+     * @param orderId 订单id
+     * @param userId  用户id
+     * @return 状态不存在或者不是这个用户下的订单时返回false
+     */
+    public boolean ownedBy(long orderId, long userId) {
+        Object owner = stringRedisTemplate.opsForHash().get(SECKILL_ORDER_STATUS_KEY + orderId, USER_FIELD);
+        return owner != null && owner.toString().equals(String.valueOf(userId));
+    }
+
+    /**
+     * 长轮询订单状态, 订单还在排队时挂起, 直到状态变化或者超时
+     *
+     * @param orderId 订单id
+     * @param timeout 超时时间(毫秒)
+     * @return 异步结果, 数据为订单状态
+     */
+    public DeferredResult<Result> await(long orderId, long timeout) {
+        DeferredResult<Result> result = new DeferredResult<>(timeout);
+        String status = get(orderId);
+        if (!QUEUED.equals(status)) {
+            result.setResult(status == null ? Result.fail("订单不存在") : Result.ok(status));
+            return result;
+        }
+        Set<DeferredResult<Result>> set = waiters.computeIfAbsent(orderId, k -> ConcurrentHashMap.newKeySet());
+        set.add(result);
+        result.onTimeout(() -> result.setResult(Result.ok(QUEUED)));
+        result.onCompletion(() -> removeWaiter(orderId, result));
+        // 注册之后再查一次, 防止查询和注册之间的广播被错过
+        status = get(orderId);
+        if (status != null && !QUEUED.equals(status)) {
+            result.setResult(Result.ok(status));
+        }
+        return result;
+    }
+
+    private void notifyWaiters(Long orderId, String status) {
+        Set<DeferredResult<Result>> set = waiters.remove(orderId);
+        if (set == null) {
+            return;
+        }
+        for (DeferredResult<Result> result : set) {
+            result.setResult(Result.ok(status));
+        }
+    }
+
+    private void removeWaiter(Long orderId, DeferredResult<Result> result) {
+        waiters.computeIfPresent(orderId, (k, set) -> {
+            set.remove(result);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
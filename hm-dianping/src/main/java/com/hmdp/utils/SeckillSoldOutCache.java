@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀优惠券本地售罄标记
+ * <p>
+ * TODO:
+ *      - 优惠券卖完之后, 每个秒杀请求仍然要生成一次订单id、执行一次lua脚本, 最后只是拿到一个1(库存不足).
+ *        售罄之后的请求量往往比售罄之前还大, 这些请求全部落在同一个库存key上.
+ *      - seckill.lua卖出最后一件时通过发布订阅广播售罄消息, 所有节点在本地标记, 之后的请求在进程内直接拒绝, 不再访问redis.
+ *        没有收到广播的节点(例如后启动的节点)第一次拿到库存不足时在本地标记, 并再广播一次. 分片和租用模式下的库存不足不一定是卖完了,
+ *        要确认所有库存key和租约都没有库存(SeckillStockClient.soldOut)才标记.
+ *      - 补充库存、归还库存(写入订单消息失败回滚、死信、对账修复、归还租约)时广播补货消息, 清除所有节点的标记.
+ *        标记有过期时间, 即使错过补货消息也能自动恢复.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Component
+public class SeckillSoldOutCache {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 已售罄的优惠券id
+     */
+    private final Cache<Long, Boolean> soldOut =
+            CacheUtil.newLRUCache(LOCAL_CACHE_CAPACITY, TimeUnit.SECONDS.toMillis(SECKILL_SOLD_OUT_TTL));
+
+    public SeckillSoldOutCache(StringRedisTemplate stringRedisTemplate,
+                               RedisMessageListenerContainer redisMessageListenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> soldOut.put(voucherId(message.getBody()), Boolean.TRUE),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> soldOut.remove(voucherId(message.getBody())),
+                new ChannelTopic(SECKILL_RESTOCK_CHANNEL));
+    }
+
+    /**
+     * 是否已售罄
+     * 注意: get时不能刷新最近访问时间, 否则售罄之后的持续请求会让标记一直续期
+     *
+     * @param voucherId 优惠券id
+     * @return true表示已售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.get(voucherId, false) != null;
+    }
+
+    /**
+     * 秒杀返回库存不足时调用, 本节点第一次发现售罄时广播给其他节点
+     *
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (isSoldOut(voucherId)) {
+            return;
+        }
+        soldOut.put(voucherId, Boolean.TRUE);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 补充库存之后调用, 清除所有节点的售罄标记
+     *
+     * @param voucherId 优惠券id
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    private static Long voucherId(byte[] body) {
+        return Long.valueOf(new String(body, StandardCharsets.UTF_8));
+    }
+}
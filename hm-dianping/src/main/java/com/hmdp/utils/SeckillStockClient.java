@@ -0,0 +1,577 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分片
+ * <p>
+ * TODO:
+ *      - 单个库存key(seckill:stock:{voucherId})承载了一个优惠券的全部秒杀流量, 整个秒杀活动都压在redis的一个slot上.
+ *        分片模式下把库存拆分到N个子key中, 用户按照id的哈希值路由到固定的分片, 不同分片的key使用不同的hash tag,
+ *        在redis集群中分布到不同的节点上.
+ *      - 库存key: seckill:stock:{voucherId:i}, 下单用户集合: seckill:order:{voucherId:i}, 两个key的hash tag相同, 可以在一个lua脚本中操作.
+ *      - 用户所在的分片没有库存时, 依次向其他分片借库存(每次借走对方剩余库存的一半), 借到之后存入自己的分片再重新扣减.
+ *        借库存时先从对方分片扣减, 再加到自己的分片, 加到自己的分片失败时还给对方分片; 节点在两步之间宕机只会少卖, 不会超卖.
+ *      - 订单消息仍然写入同一个stream, 写入失败时回滚库存和下单用户. 只有抢到库存的请求才会写stream,
+ *        写入次数不超过总库存, 大量的库存不足和重复下单请求都被分散到各个分片上了.
+ *      - 每人限购: 下单用户集合每个用户占一个SET元素, 只能记录是否买过. 优惠券描述的buckets大于0时改成按用户id分桶的hash,
+ *        seckill:quota:{voucherId}:{userId % buckets}, field为用户id, value为已购数量, 每个桶只有几十个用户,
+ *        redis使用listpack紧凑编码, 比SET的hashtable编码省内存, 还能记录数量. 已售数量另外记在seckill:sold:{voucherId}中.
+ *        分片模式下每个分片有自己的桶和已售数量(seckill:quota:{voucherId:i}:b, seckill:sold:{voucherId:i}), 和分片库存的hash tag相同.
+ *      - 活动限购的计数和优惠券不在同一个slot, 只在没有分片的优惠券上判断(seckill.lua).
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class SeckillStockClient {
+
+    private static final DefaultRedisScript<List> SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> BORROW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> QUOTA_RELEASE_SCRIPT;
+    static {
+        SHARD_SCRIPT = new DefaultRedisScript<>();
+        SHARD_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_SHARD_FILENAME));
+        SHARD_SCRIPT.setResultType(List.class);
+        BORROW_SCRIPT = new DefaultRedisScript<>();
+        BORROW_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_BORROW_FILENAME));
+        BORROW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_RELEASE_FILENAME));
+        RELEASE_SCRIPT.setResultType(Long.class);
+        QUOTA_RELEASE_SCRIPT = new DefaultRedisScript<>();
+        QUOTA_RELEASE_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_QUOTA_RELEASE_FILENAME));
+        QUOTA_RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillOrderStatus seckillOrderStatus;
+
+    /**
+     * 优惠券描述, 为null时(基准测试)所有优惠券都使用下单用户集合
+     */
+    private final SeckillVoucherCache seckillVoucherCache;
+
+    /**
+     * 售罄标记, 归还库存之后清除, 为null时(基准测试)不清除
+     */
+    private final SeckillSoldOutCache seckillSoldOutCache;
+
+    /**
+     * 优惠券id -> 分片个数, 1表示没有分片
+     */
+    private final Cache<Long, Integer> shardCounts =
+            CacheUtil.newLRUCache(LOCAL_CACHE_CAPACITY, TimeUnit.SECONDS.toMillis(SECKILL_SHARDS_CACHE_TTL));
+
+    public SeckillStockClient(StringRedisTemplate stringRedisTemplate, SeckillOrderStatus seckillOrderStatus,
+                              SeckillVoucherCache seckillVoucherCache, SeckillSoldOutCache seckillSoldOutCache) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillOrderStatus = seckillOrderStatus;
+        this.seckillVoucherCache = seckillVoucherCache;
+        this.seckillSoldOutCache = seckillSoldOutCache;
+    }
+
+    /**
+     * 初始化分片库存, 库存平均分配到各个分片, 除不尽的部分分给前面的分片
+     *
+     * @param voucherId 优惠券id
+     * @param stock     总库存
+     * @param shards    分片个数
+     */
+    public void init(Long voucherId, int stock, int shards) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < shards; i++) {
+                int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+                connection.stringCommands().set(bytes(stockKey(voucherId, i)), bytes(String.valueOf(shardStock)));
+            }
+            return null;
+        });
+        // 分片库存写完之后再写入分片个数, 其他节点看到分片个数时库存一定已经就绪
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardCounts.put(voucherId, shards);
+    }
+
+    /**
+     * 优惠券的分片个数
+     *
+     * @param voucherId 优惠券id
+     * @return 分片个数, 没有分片返回1
+     */
+    public int shards(Long voucherId) {
+        Integer shards = shardCounts.get(voucherId, false);
+        if (shards == null) {
+            String value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+            shards = value == null ? 1 : Integer.parseInt(value);
+            shardCounts.put(voucherId, shards);
+        }
+        return shards;
+    }
+
+    /**
+     * 分片模式下秒杀, 和seckill.lua的返回值一致, 一人一单, 不判断秒杀时间
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @param orderId   订单id
+     * @return 0: 成功, 1: 库存不足, 2: 重复下单
+     */
+    public long seckill(Long voucherId, Long userId, long orderId) {
+        return seckill(voucherId, userId, orderId, null);
+    }
+
+    /**
+     * 分片模式下秒杀, 在脚本中用redis的时间判断秒杀时间, 按照描述中的限购数量判断
+     *
+     * @param voucherId  优惠券id
+     * @param userId     用户id
+     * @param orderId    订单id
+     * @param descriptor 优惠券描述, 为null时一人一单, 不判断秒杀时间
+     * @return 0: 成功, 1: 库存不足, 2: 重复下单(达到限购数量), 3: 未开始, 4: 已结束
+     */
+    public long seckill(Long voucherId, Long userId, long orderId, SeckillVoucherCache.Descriptor descriptor) {
+        int shards = shards(voucherId);
+        Store store = storeOf(voucherId, userId, shards, descriptor);
+        long[] result = reserve(voucherId, userId, store, shards, descriptor);
+        if (result[0] != 0) {
+            return result[0];
+        }
+        // 抢到库存之后写入订单消息, 失败时回滚. 状态要在写入stream之前设置, 否则可能覆盖消费者写入的结果
+        try {
+            seckillOrderStatus.queued(orderId, userId);
+            Map<String, String> message = new HashMap<>(8);
+            message.put("userId", userId.toString());
+            message.put("voucherId", voucherId.toString());
+            message.put("id", String.valueOf(orderId));
+            message.put("seq", String.valueOf(result[1]));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM, message);
+        } catch (RuntimeException e) {
+            restocked(voucherId, release(store, userId, 1));
+            throw e;
+        }
+        return 0;
+    }
+
+    /**
+     * 只扣减库存和记录下单用户, 不写入订单消息
+     *
+     * @param voucherId  优惠券id
+     * @param userId     用户id
+     * @param descriptor 优惠券描述, 为null时一人一单, 不判断秒杀时间
+     * @return 和seckill的返回值一致
+     */
+    long reserve(Long voucherId, Long userId, SeckillVoucherCache.Descriptor descriptor) {
+        int shards = shards(voucherId);
+        return reserve(voucherId, userId, storeOf(voucherId, userId, shards, descriptor), shards, descriptor)[0];
+    }
+
+    /**
+     * 所有分片的剩余库存之和
+     *
+     * @param voucherId 优惠券id
+     * @return 剩余库存
+     */
+    public long remaining(Long voucherId) {
+        int shards = shards(voucherId);
+        long total = 0;
+        for (int i = 0; i < shards; i++) {
+            String stock = stringRedisTemplate.opsForValue().get(stockKey(voucherId, i));
+            total += stock == null ? 0 : Long.parseLong(stock);
+        }
+        return total;
+    }
+
+    /**
+     * 优惠券的所有库存key, 没有分片时就是seckill.lua中使用的key
+     *
+     * @param voucherId 优惠券id
+     * @return 库存key
+     */
+    public List<String> stockKeys(Long voucherId) {
+        List<String> keys = new ArrayList<>();
+        for (Store store : stores(voucherId)) {
+            keys.add(store.stockKey);
+        }
+        return keys;
+    }
+
+    /**
+     * 分批扫描redis中的下单用户和已购数量, 下单用户集合中的用户已购数量为1
+     *
+     * @param voucherId 优惠券id
+     * @param chunkSize 每一批的用户数
+     * @param handler   处理一批用户, 用户id -> 已购数量
+     */
+    public void scanBuyers(Long voucherId, int chunkSize, Consumer<Map<Long, Integer>> handler) {
+        Map<Long, Integer> chunk = new HashMap<>(chunkSize * 2);
+        for (Store store : stores(voucherId)) {
+            if (store.buckets > 0) {
+                // 每个桶只有几十个用户, 直接HGETALL
+                for (int b = 0; b < store.buckets; b++) {
+                    Map<Object, Object> bucket = stringRedisTemplate.opsForHash().entries(store.quotaKey(b));
+                    bucket.forEach((userId, count) ->
+                            chunk.put(Long.valueOf(userId.toString()), Integer.valueOf(count.toString())));
+                    if (chunk.size() >= chunkSize) {
+                        handler.accept(new HashMap<>(chunk));
+                        chunk.clear();
+                    }
+                }
+                continue;
+            }
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(store.orderKey,
+                    ScanOptions.scanOptions().count(chunkSize).build())) {
+                while (cursor.hasNext()) {
+                    chunk.put(Long.valueOf(cursor.next()), 1);
+                    if (chunk.size() >= chunkSize) {
+                        handler.accept(new HashMap<>(chunk));
+                        chunk.clear();
+                    }
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            handler.accept(chunk);
+        }
+    }
+
+    /**
+     * 用户在redis中的已购数量, pipeline SISMEMBER/HGET
+     *
+     * @param voucherId 优惠券id
+     * @param userIds   用户id
+     * @return 和userIds一一对应的已购数量
+     */
+    public List<Integer> bought(Long voucherId, List<Long> userIds) {
+        int shards = shards(voucherId);
+        SeckillVoucherCache.Descriptor descriptor = descriptor(voucherId);
+        List<Store> stores = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            stores.add(storeOf(voucherId, userId, shards, descriptor));
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < userIds.size(); i++) {
+                Store store = stores.get(i);
+                byte[] userId = bytes(userIds.get(i).toString());
+                if (store.buckets > 0) {
+                    connection.hashCommands().hGet(bytes(store.quotaKey(userIds.get(i))), userId);
+                } else {
+                    connection.setCommands().sIsMember(bytes(store.orderKey), userId);
+                }
+            }
+            return null;
+        });
+        List<Integer> bought = new ArrayList<>(userIds.size());
+        for (Object result : results) {
+            if (result instanceof Boolean) {
+                bought.add((Boolean) result ? 1 : 0);
+            } else {
+                bought.add(result == null ? 0 : Integer.parseInt(result.toString()));
+            }
+        }
+        return bought;
+    }
+
+    /**
+     * 撤销用户的n个下单资格并归还库存, 下单用户集合模式下最多撤销1个
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @param n         撤销的数量
+     * @return 实际撤销的数量
+     */
+    public int release(Long voucherId, Long userId, int n) {
+        int shards = shards(voucherId);
+        return restocked(voucherId, release(storeOf(voucherId, userId, shards, descriptor(voucherId)), userId, n));
+    }
+
+    /**
+     * 是否真的卖完了: 所有库存key和各个节点的租约都没有库存. 分片模式下借库存可能被其他用户抢走,
+     * 租用模式下其他节点还有租到的库存, 一次库存不足不能说明卖完了
+     *
+     * @param voucherId 优惠券id
+     * @return true表示已售罄
+     */
+    public boolean soldOut(Long voucherId) {
+        if (remaining(voucherId) > 0) {
+            return false;
+        }
+        for (Object leased : stringRedisTemplate.opsForHash().values(SECKILL_LEASE_KEY + voucherId)) {
+            if (Long.parseLong(leased.toString()) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 库存归还之后清除所有节点的售罄标记
+     *
+     * @param voucherId 优惠券id
+     * @param n         归还的数量
+     * @return n
+     */
+    public int restocked(Long voucherId, int n) {
+        if (n > 0 && seckillSoldOutCache != null) {
+            seckillSoldOutCache.clear(voucherId);
+        }
+        return n;
+    }
+
+    /**
+     * 补充用户的n个下单资格, 不扣减库存, 由对账按照总量修正库存. 下单用户集合模式下只是加入集合
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @param n         补充的数量
+     */
+    public void grant(Long voucherId, Long userId, int n) {
+        Store store = storeOf(voucherId, userId, shards(voucherId), descriptor(voucherId));
+        if (store.buckets <= 0) {
+            stringRedisTemplate.opsForSet().add(store.orderKey, userId.toString());
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] field = bytes(userId.toString());
+            connection.hashCommands().hIncrBy(bytes(store.quotaKey(userId)), field, n);
+            connection.stringCommands().incrBy(bytes(store.soldKey), n);
+            if (store.campaignKey(userId) != null) {
+                connection.hashCommands().hIncrBy(bytes(store.campaignKey(userId)), field, n);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * redis的 库存 + 已售数量(下单用户数) + 各个节点租用的库存
+     * <p>
+     * 每个分片一个MULTI, 读取这个分片的库存和已售数量, 不会读到一次秒杀的中间状态. 不同分片的hash tag不同,
+     * 在redis集群中不能放在同一个MULTI里(CROSSSLOT). 租约只在没有分片的优惠券上使用, 和库存key在同一个MULTI中读取,
+     * 与seckill_lease.lua同时操作这两个key的前提一致. 分片之间借库存时可能读到中间状态, 对账要求差值持续grace-period才确认
+     * </p>
+     *
+     * @param voucherId 优惠券id
+     * @return 总量, 库存key不存在返回null
+     */
+    public Long redisTotal(Long voucherId) {
+        List<Store> stores = stores(voucherId);
+        long total = 0;
+        boolean exists = false;
+        for (Store store : stores) {
+            boolean withLease = stores.size() == 1;
+            List<Object> results = stringRedisTemplate.execute(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<Object> execute(RedisOperations operations) throws DataAccessException {
+                    operations.multi();
+                    operations.opsForValue().get(store.stockKey);
+                    if (store.buckets > 0) {
+                        operations.opsForValue().get(store.soldKey);
+                    } else {
+                        operations.opsForSet().size(store.orderKey);
+                    }
+                    if (withLease) {
+                        operations.opsForHash().values(SECKILL_LEASE_KEY + voucherId);
+                    }
+                    return operations.exec();
+                }
+            });
+            if (results == null || results.isEmpty()) {
+                continue;
+            }
+            exists |= results.get(0) != null;
+            for (Object value : results) {
+                if (value == null) {
+                    continue;
+                }
+                if (value instanceof List) {
+                    for (Object leased : (List<?>) value) {
+                        total += Long.parseLong(leased.toString());
+                    }
+                } else {
+                    total += value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+                }
+            }
+        }
+        return exists ? total : null;
+    }
+
+    /**
+     * 在用户所在的分片扣减库存, 没有库存时向其他分片借
+     *
+     * @return {结果, seq}
+     */
+    private long[] reserve(Long voucherId, Long userId, Store store, int shards, SeckillVoucherCache.Descriptor descriptor) {
+        String begin = String.valueOf(descriptor == null ? 0L : descriptor.getBegin());
+        String end = String.valueOf(descriptor == null ? Long.MAX_VALUE : descriptor.getEnd());
+        String limit = String.valueOf(descriptor == null ? 1 : descriptor.getLimit());
+        List<String> keys = store.buckets > 0
+                ? Arrays.asList(store.stockKey, store.orderKey, store.quotaKey(userId), store.soldKey, store.seqKey(userId))
+                : Arrays.asList(store.stockKey, store.orderKey);
+        long[] result = toResult(stringRedisTemplate.execute(SHARD_SCRIPT, keys, userId.toString(), begin, end, limit));
+        for (int i = 1; result[0] == 1 && i < shards; i++) {
+            String siblingKey = stockKey(voucherId, (store.shard + i) % shards);
+            Long borrowed = stringRedisTemplate.execute(BORROW_SCRIPT, Collections.singletonList(siblingKey));
+            if (borrowed == null || borrowed <= 0) {
+                continue;
+            }
+            try {
+                stringRedisTemplate.opsForValue().increment(store.stockKey, borrowed);
+            } catch (RuntimeException e) {
+                // 存入自己的分片失败, 把借到的库存还给对方分片, 否则这部分库存要等对账修复
+                giveBack(siblingKey, borrowed);
+                throw e;
+            }
+            // 借到的库存有可能被同一个分片的其他用户抢走, 抢不到就继续向下一个分片借
+            result = toResult(stringRedisTemplate.execute(SHARD_SCRIPT, keys, userId.toString(), begin, end, limit));
+        }
+        return result;
+    }
+
+    private void giveBack(String siblingKey, long borrowed) {
+        try {
+            stringRedisTemplate.opsForValue().increment(siblingKey, borrowed);
+        } catch (RuntimeException e) {
+            log.error("归还借用的库存失败, key={}, 数量={}, 等待对账修复", siblingKey, borrowed, e);
+        }
+    }
+
+    private int release(Store store, Long userId, int n) {
+        Long released;
+        if (store.buckets > 0) {
+            List<String> keys = new ArrayList<>(4);
+            keys.add(store.stockKey);
+            keys.add(store.quotaKey(userId));
+            keys.add(store.soldKey);
+            if (store.campaignKey(userId) != null) {
+                keys.add(store.campaignKey(userId));
+            }
+            released = stringRedisTemplate.execute(QUOTA_RELEASE_SCRIPT, keys, userId.toString(), String.valueOf(n));
+        } else {
+            released = stringRedisTemplate.execute(RELEASE_SCRIPT,
+                    Arrays.asList(store.stockKey, store.orderKey), userId.toString());
+        }
+        return released == null ? 0 : released.intValue();
+    }
+
+    private static long[] toResult(List<?> result) {
+        return new long[]{((Number) result.get(0)).longValue(), ((Number) result.get(1)).longValue()};
+    }
+
+    private SeckillVoucherCache.Descriptor descriptor(Long voucherId) {
+        return seckillVoucherCache == null ? null : seckillVoucherCache.get(voucherId);
+    }
+
+    private List<Store> stores(Long voucherId) {
+        int shards = shards(voucherId);
+        SeckillVoucherCache.Descriptor descriptor = descriptor(voucherId);
+        List<Store> stores = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            stores.add(new Store(voucherId, i, shards, descriptor));
+        }
+        return stores;
+    }
+
+    private Store storeOf(Long voucherId, Long userId, int shards, SeckillVoucherCache.Descriptor descriptor) {
+        return new Store(voucherId, shardOf(userId, shards), shards, descriptor);
+    }
+
+    /**
+     * 一个分片(没有分片时就是整个优惠券)的key
+     */
+    private static final class Store {
+        private final int shard;
+        private final String stockKey;
+        private final String orderKey;
+        private final String soldKey;
+        private final String quotaPrefix;
+        private final String seqPrefix;
+        // 每人限购计数的分桶个数, 0表示使用下单用户集合
+        private final int buckets;
+        private final long campaign;
+
+        private Store(Long voucherId, int shard, int shards, SeckillVoucherCache.Descriptor descriptor) {
+            this.shard = shard;
+            String suffix = shards <= 1 ? voucherId.toString() : "{" + voucherId + DELIMITER + shard + "}";
+            this.stockKey = SECKILL_STOCK_KEY + suffix;
+            this.orderKey = SECKILL_ORDER_KEY + suffix;
+            this.soldKey = SECKILL_SOLD_KEY + suffix;
+            this.quotaPrefix = SECKILL_QUOTA_KEY + suffix + DELIMITER;
+            this.seqPrefix = SECKILL_SEQ_KEY + suffix + DELIMITER;
+            int total = descriptor == null ? 0 : descriptor.getBuckets();
+            // 分片之后每个分片的用户数是总数的1/shards, 桶也按比例分
+            this.buckets = total <= 0 ? 0 : Math.max(1, (total + shards - 1) / shards);
+            this.campaign = descriptor == null || shards > 1 ? 0L : descriptor.getCampaign();
+        }
+
+        private String quotaKey(Long userId) {
+            return quotaKey((int) Math.floorMod(userId, (long) buckets));
+        }
+
+        private String quotaKey(int bucket) {
+            return quotaPrefix + bucket;
+        }
+
+        private String seqKey(Long userId) {
+            return seqPrefix + Math.floorMod(userId, (long) buckets);
+        }
+
+        private String campaignKey(Long userId) {
+            return campaign <= 0 ? null
+                    : SECKILL_CAMPAIGN_KEY + campaign + DELIMITER + Math.floorMod(userId, (long) SECKILL_CAMPAIGN_BUCKETS);
+        }
+    }
+
+    /**
+     * 用户路由到的分片, 同一个用户总是路由到同一个分片, 所以只需要在这个分片中判断重复下单
+     */
+    private static int shardOf(Long userId, int shards) {
+        // 打散连续的用户id
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) shards);
+    }
+
+    /**
+     * 分片库存key, hash tag为{voucherId:i}
+     */
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + DELIMITER + shard + "}";
+    }
+
+    /**
+     * 分片下单用户集合key, 和库存key的hash tag相同
+     */
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + DELIMITER + shard + "}";
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,363 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 租用秒杀库存, 本地无锁分配
+ * <p>
+ * TODO:
+ *      - 库存很大的秒杀, 每个请求都要在redis中执行一次seckill.lua, redis执行脚本的速度成为瓶颈.
+ *        租用模式下节点每次从seckill:stock:{voucherId}租用lease-size个库存, 记在租约hash(seckill:lease:{voucherId})中自己的字段上,
+ *        本地用AtomicLong CAS分配, 一批库存只执行一次脚本. 本地库存用完时只有一个线程去租下一批.
+ *      - 用户去重仍然是全局的: 抢到本地库存之后pipeline执行 SADD下单用户集合(每人限购模式下HINCRBY计数桶、INCR已售数量) + HINCRBY租约-1,
+ *        都是普通命令, 不执行脚本. 重复下单(超出限购)时撤销并把库存还给本地.
+ *      - redis中 库存 + 已售数量 + 所有租约 不随下单变化, 库存对账把租约也算进总量.
+ *      - 租到的库存空闲超过lease-idle-timeout没有卖出时归还redis, 节点关闭时全部归还. 节点每秒写一次心跳,
+ *        宕机之后心跳过期, 由库存对账收回它的租约. 节点停顿超过心跳过期时间之后租约已经被收回, 再卖出时租约变成负数,
+ *        这一单撤销, 丢弃本地库存重新租用.
+ *      - 只判断本地缓存的秒杀时间, 只对没有分片、不属于活动的优惠券生效. 属于活动的优惠券仍然执行seckill.lua判断活动限购.
+ *      - 本地租约和redis都没有库存时返回库存不足, 其他节点可能还有租到的库存, 售罄标记由调用者确认之后再设置.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class SeckillStockLease {
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_LEASE_FILENAME));
+        LEASE_SCRIPT.setResultType(Long.class);
+        RETURN_SCRIPT = new DefaultRedisScript<>();
+        RETURN_SCRIPT.setLocation(new ClassPathResource(SystemConstants.LUA_SCRIPT_SECKILL_LEASE_RETURN_FILENAME));
+        RETURN_SCRIPT.setResultType(Long.class);
+    }
+
+    // 租约被收回
+    private static final long REVOKED = -1L;
+
+    // 心跳和归还空闲租约的线程, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskScheduler seckillLeaseScheduler;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    // 每次租用的库存数量, 小于等于0表示不使用租用模式
+    @Value("${hmdp.seckill.lease-size:0}")
+    private int leaseSize;
+
+    // 空闲超过多久(毫秒)归还租到的库存
+    @Value("${hmdp.seckill.lease-idle-timeout:5000}")
+    private long leaseIdleTimeout;
+
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    private String node;
+
+    /**
+     * 优惠券id -> 本地租约
+     */
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * 一个优惠券在本节点上还没有分配的库存
+     */
+    private static final class Lease {
+        private final Long voucherId;
+        private final AtomicLong units = new AtomicLong();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Lease(Long voucherId) {
+            this.voucherId = voucherId;
+        }
+
+        /**
+         * CAS分配一个库存
+         */
+        private boolean tryTake() {
+            for (long u = units.get(); u > 0; u = units.get()) {
+                if (units.compareAndSet(u, u - 1)) {
+                    lastUsed = System.currentTimeMillis();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        node = SeckillOrderReclaimer.consumerName(consumerName, "lease");
+        if (enabled()) {
+            seckillLeaseScheduler.scheduleWithFixedDelay(this::sweepQuietly, Duration.ofMillis(SECKILL_LEASE_HEARTBEAT_INTERVAL));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        seckillLeaseScheduler.shutdown();
+        if (!enabled()) {
+            return;
+        }
+        // 关闭时归还全部租约
+        for (Lease lease : leases.values()) {
+            try {
+                giveBack(lease);
+            } catch (Exception e) {
+                log.error("归还租约失败, 由库存对账收回, voucherId={}", lease.voucherId, e);
+            }
+        }
+        stringRedisTemplate.delete(SECKILL_LESSEE_KEY + node);
+    }
+
+    /**
+     * 是否开启租用模式
+     */
+    public boolean enabled() {
+        return leaseSize > 0;
+    }
+
+    /**
+     * 优惠券是否可以使用租用模式. 属于活动的优惠券要在seckill.lua中判断活动限购, 不使用租用模式, 否则用户可以超出活动限购
+     *
+     * @param descriptor 优惠券描述
+     * @return true表示从本地租约分配
+     */
+    public boolean supports(SeckillVoucherCache.Descriptor descriptor) {
+        return enabled() && descriptor.getCampaign() <= 0;
+    }
+
+    /**
+     * 租用模式下秒杀, 返回值和seckill.lua一致
+     *
+     * @param voucherId  优惠券id
+     * @param userId     用户id
+     * @param orderId    订单id
+     * @param descriptor 优惠券描述
+     * @return 0: 成功, 1: 库存不足, 2: 重复下单(达到限购数量)
+     */
+    public long seckill(Long voucherId, Long userId, long orderId, SeckillVoucherCache.Descriptor descriptor) {
+        Lease lease = leases.computeIfAbsent(voucherId, Lease::new);
+        long[] claimed;
+        do {
+            if (!take(lease)) {
+                return 1;
+            }
+            claimed = claim(voucherId, userId, descriptor);
+            if (claimed[0] == REVOKED) {
+                // 租约已经被收回, 本地的库存作废, 重新租用
+                lease.units.set(0);
+            }
+        } while (claimed[0] == REVOKED);
+        if (claimed[0] != 0) {
+            lease.units.incrementAndGet();
+            return claimed[0];
+        }
+        // 状态要在写入stream之前设置, 否则可能覆盖消费者写入的结果
+        try {
+            seckillOrderStatus.queued(orderId, userId);
+            Map<String, String> message = new HashMap<>(8);
+            message.put("userId", userId.toString());
+            message.put("voucherId", voucherId.toString());
+            message.put("id", String.valueOf(orderId));
+            message.put("seq", String.valueOf(claimed[1]));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM, message);
+        } catch (RuntimeException e) {
+            undo(voucherId, userId, descriptor, true);
+            lease.units.incrementAndGet();
+            throw e;
+        }
+        return 0;
+    }
+
+    /**
+     * 收回心跳过期的节点的租约, 由库存对账在读取总量之前调用
+     *
+     * @param voucherId 优惠券id
+     * @return 收回的库存数量
+     */
+    public long reclaimDead(Long voucherId) {
+        String leaseKey = SECKILL_LEASE_KEY + voucherId;
+        long reclaimed = 0;
+        for (Object lessee : stringRedisTemplate.opsForHash().keys(leaseKey)) {
+            String name = lessee.toString();
+            if (name.equals(node) || Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_LESSEE_KEY + name))) {
+                continue;
+            }
+            Long n = stringRedisTemplate.execute(RETURN_SCRIPT,
+                    Arrays.asList(SECKILL_STOCK_KEY + voucherId, leaseKey), name);
+            if (n != null && n > 0) {
+                log.warn("收回宕机节点的租约, voucherId={}, node={}, stock={}", voucherId, name, n);
+                reclaimed += n;
+            }
+        }
+        if (reclaimed > 0) {
+            seckillSoldOutCache.clear(voucherId);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 从本地租约分配一个库存, 用完时租用下一批
+     */
+    private boolean take(Lease lease) {
+        if (lease.tryTake()) {
+            return true;
+        }
+        synchronized (lease) {
+            // 等锁的时候其他线程可能已经租到了
+            if (lease.tryTake()) {
+                return true;
+            }
+            Long leased = stringRedisTemplate.execute(LEASE_SCRIPT,
+                    Arrays.asList(SECKILL_STOCK_KEY + lease.voucherId, SECKILL_LEASE_KEY + lease.voucherId),
+                    node, String.valueOf(leaseSize));
+            if (leased == null || leased <= 0) {
+                return false;
+            }
+            lease.lastUsed = System.currentTimeMillis();
+            lease.units.addAndGet(leased - 1);
+            return true;
+        }
+    }
+
+    /**
+     * 在redis中记录用户的购买, 同时从租约上扣掉一个库存
+     *
+     * @return {结果, seq}, 结果为REVOKED表示租约已经被收回
+     */
+    private long[] claim(Long voucherId, Long userId, SeckillVoucherCache.Descriptor descriptor) {
+        boolean quota = descriptor.quota();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] field = bytes(userId.toString());
+            if (quota) {
+                connection.hashCommands().hIncrBy(bytes(quotaKey(voucherId, userId, descriptor)), field, 1);
+                connection.stringCommands().incr(bytes(SECKILL_SOLD_KEY + voucherId));
+                // seq计数只增不减, 撤销时也不还原, 跳过的seq没有影响
+                connection.hashCommands().hIncrBy(bytes(seqKey(voucherId, userId, descriptor)), field, 1);
+            } else {
+                connection.setCommands().sAdd(bytes(SECKILL_ORDER_KEY + voucherId), field);
+            }
+            connection.hashCommands().hIncrBy(bytes(SECKILL_LEASE_KEY + voucherId), bytes(node), -1);
+            return null;
+        });
+        long bought = ((Number) results.get(0)).longValue();
+        long seq = quota ? ((Number) results.get(2)).longValue() : 1;
+        long held = ((Number) results.get(results.size() - 1)).longValue();
+        // SADD返回0表示已经下过单, HINCRBY返回的是加一之后的已购数量
+        boolean added = quota || bought == 1;
+        boolean accepted = quota ? bought <= descriptor.getLimit() : added;
+        if (held < 0 || !accepted) {
+            undo(voucherId, userId, descriptor, added);
+            return new long[]{held < 0 ? REVOKED : 2, 0};
+        }
+        return new long[]{0, seq};
+    }
+
+    /**
+     * 撤销claim: 还原用户的购买记录, 库存还给租约
+     */
+    private void undo(Long voucherId, Long userId, SeckillVoucherCache.Descriptor descriptor, boolean added) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] field = bytes(userId.toString());
+            if (descriptor.quota()) {
+                connection.hashCommands().hIncrBy(bytes(quotaKey(voucherId, userId, descriptor)), field, -1);
+                connection.stringCommands().decr(bytes(SECKILL_SOLD_KEY + voucherId));
+            } else if (added) {
+                connection.setCommands().sRem(bytes(SECKILL_ORDER_KEY + voucherId), field);
+            }
+            connection.hashCommands().hIncrBy(bytes(SECKILL_LEASE_KEY + voucherId), bytes(node), 1);
+            return null;
+        });
+    }
+
+    /**
+     * 写心跳, 归还空闲的租约
+     */
+    private void sweepQuietly() {
+        try {
+            stringRedisTemplate.opsForValue().set(SECKILL_LESSEE_KEY + node, String.valueOf(System.currentTimeMillis()),
+                    SECKILL_LESSEE_TTL, TimeUnit.SECONDS);
+            long now = System.currentTimeMillis();
+            for (Lease lease : leases.values()) {
+                if (lease.units.get() > 0 && now - lease.lastUsed >= leaseIdleTimeout) {
+                    giveBack(lease);
+                }
+            }
+        } catch (Exception e) {
+            // 不能抛出去, 否则定时任务就停了
+            log.error("维护库存租约异常", e);
+        }
+    }
+
+    /**
+     * 归还本地没有分配的库存, 归还之后清除售罄标记, 其他节点可以继续卖
+     */
+    private void giveBack(Lease lease) {
+        synchronized (lease) {
+            long n = lease.units.getAndSet(0);
+            if (n <= 0) {
+                return;
+            }
+            Long returned = stringRedisTemplate.execute(RETURN_SCRIPT,
+                    Arrays.asList(SECKILL_STOCK_KEY + lease.voucherId, SECKILL_LEASE_KEY + lease.voucherId),
+                    node, String.valueOf(n));
+            log.debug("归还租约, voucherId={}, stock={}", lease.voucherId, returned);
+            if (returned != null && returned > 0) {
+                seckillSoldOutCache.clear(lease.voucherId);
+            }
+        }
+    }
+
+    /**
+     * 和seckill.lua中没有分片的计数桶key一致
+     */
+    private static String quotaKey(Long voucherId, Long userId, SeckillVoucherCache.Descriptor descriptor) {
+        return SECKILL_QUOTA_KEY + voucherId + DELIMITER + Math.floorMod(userId, (long) descriptor.getBuckets());
+    }
+
+    /**
+     * 和seckill.lua中没有分片的seq计数桶key一致
+     */
+    private static String seqKey(Long voucherId, Long userId, SeckillVoucherCache.Descriptor descriptor) {
+        return SECKILL_SEQ_KEY + voucherId + DELIMITER + Math.floorMod(userId, (long) descriptor.getBuckets());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,359 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_LOCK_KEY;
+
+/**
+ * 秒杀库存对账, redis中的库存/下单用户 和 tb_seckill_voucher.stock/tb_voucher_order
+ * <p>
+ * TODO:
+ *      - 消费者扣减库存失败、消息进入死信时只打印日志, redis认为用户已经下单, 数据库却没有订单, 两边的库存慢慢就对不上了.
+ *      - 按照优惠券id keyset分页扫描tb_seckill_voucher, 每个优惠券:
+ *        1. 分批扫描redis中的已购数量(SSCAN下单用户集合, 或者每人限购模式下HGETALL每个计数桶), 每一批用户一条IN + GROUP BY查询数据库订单数,
+ *           找出redis比数据库多的用户. 这些订单有可能还在stream中排队, 连续超过grace-period并且不在stream中(pending-list和还没有投递的消息)
+ *           才确认, 修复时撤销多出的资格并归还redis库存.
+ *        2. 按照user_id keyset分页扫描数据库每个用户的订单数(索引uk_voucher_user), pipeline SISMEMBER/HGET, 找出数据库比redis多的用户,
+ *           修复时补充redis中的已购数量, 防止超出限购.
+ *        3. 比较总量: redis的 库存 + 已售数量 + 租约(每个分片一个MULTI读取, 兼容redis集群) 和 数据库的 库存 + 订单数(一条语句读取), 两边各自不随下单变化,
+ *           同样的差值持续超过grace-period才确认, 修复时按差值调整redis库存, 以数据库为准.
+ *      - 每一批之后暂停chunk-pause毫秒, 秒杀准入关闭(订单积压)时暂停更久, 秒杀进行中也可以运行.
+ *        默认只报告不修复, 多个节点通过分布式锁保证同时只有一个节点在对账.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    // 订单积压时暂停时间放大的倍数
+    private static final int BACKLOG_PAUSE_FACTOR = 10;
+
+    // 定时对账的线程, 见ExecutorConfig
+    @Resource
+    private ThreadPoolTaskScheduler seckillReconcileScheduler;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Resource
+    private SeckillAdmissionControl seckillAdmissionControl;
+
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    @Resource
+    private SeckillOrderReclaimer seckillOrderReclaimer;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 对账间隔(毫秒), 小于等于0表示不定时对账
+    @Value("${hmdp.seckill.reconcile-interval:300000}")
+    private long reconcileInterval;
+
+    // 每一批扫描的条数
+    @Value("${hmdp.seckill.reconcile-chunk-size:500}")
+    private int chunkSize;
+
+    // 每一批之后暂停的时间(毫秒)
+    @Value("${hmdp.seckill.reconcile-chunk-pause:20}")
+    private long chunkPause;
+
+    // 不一致持续超过多久(毫秒)才确认, 排除还在stream中排队的订单
+    @Value("${hmdp.seckill.reconcile-grace-period:60000}")
+    private long gracePeriod;
+
+    // 是否修复, false时只报告
+    @Value("${hmdp.seckill.reconcile-repair:false}")
+    private boolean repair;
+
+    /**
+     * 优惠券id -> (redis中有、数据库中没有订单的用户 -> 第一次发现的时间)
+     */
+    private final Map<Long, Map<Long, Long>> missingOrderSince = new ConcurrentHashMap<>();
+
+    /**
+     * 优惠券id -> 总量差值和第一次发现的时间
+     */
+    private final Map<Long, long[]> totalDiffSince = new ConcurrentHashMap<>();
+
+    private volatile List<Discrepancy> lastReport = Collections.emptyList();
+
+    private volatile LocalDateTime lastRunAt;
+
+    /**
+     * 一个优惠券的对账结果
+     */
+    @Data
+    public static class Discrepancy {
+        private Long voucherId;
+        // redis中的已购数量多于数据库订单数的用户 -> 差值
+        private Map<Long, Integer> missingInDb = new HashMap<>();
+        // 数据库订单数多于redis中已购数量的用户 -> 差值
+        private Map<Long, Integer> missingInRedis = new HashMap<>();
+        // redis的库存 + 已售数量(下单用户数)
+        private Long redisTotal;
+        // 数据库的库存 + 订单数
+        private Long dbTotal;
+        // 确认的总量差值(数据库 - redis), 没有确认为null
+        private Long stockDiff;
+        // 是否已经修复
+        private boolean repaired;
+
+        private boolean isEmpty() {
+            return missingInDb.isEmpty() && missingInRedis.isEmpty() && stockDiff == null
+                    && (redisTotal == null) == (dbTotal == null);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (reconcileInterval > 0) {
+            seckillReconcileScheduler.scheduleWithFixedDelay(this::reconcileQuietly,
+                    Instant.now().plusMillis(reconcileInterval), Duration.ofMillis(reconcileInterval));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        seckillReconcileScheduler.shutdown();
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("秒杀库存对账异常", e);
+        }
+    }
+
+    /**
+     * 对账所有秒杀优惠券
+     *
+     * @return 有差异的优惠券, 其他节点正在对账时返回上一次的结果
+     */
+    public List<Discrepancy> reconcile() {
+        RLock lock = redissonClient.getLock(SECKILL_RECONCILE_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return lastReport;
+        }
+        try {
+            List<Discrepancy> report = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            long lastId = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                // keyset分页, 不使用offset
+                List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new LambdaQueryWrapper<SeckillVoucher>()
+                        .select(SeckillVoucher::getVoucherId)
+                        .gt(SeckillVoucher::getVoucherId, lastId)
+                        .orderByAsc(SeckillVoucher::getVoucherId)
+                        .last("LIMIT " + chunkSize));
+                if (vouchers.isEmpty()) {
+                    break;
+                }
+                for (SeckillVoucher voucher : vouchers) {
+                    seen.add(voucher.getVoucherId());
+                    Discrepancy discrepancy = reconcile(voucher.getVoucherId());
+                    if (!discrepancy.isEmpty()) {
+                        report.add(discrepancy);
+                    }
+                }
+                lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            }
+            // 已经删除的优惠券
+            missingOrderSince.keySet().retainAll(seen);
+            totalDiffSince.keySet().retainAll(seen);
+            lastReport = report;
+            lastRunAt = LocalDateTime.now();
+            if (!report.isEmpty()) {
+                log.warn("秒杀库存对账发现{}个优惠券不一致, repair={}: {}", report.size(), repair, report);
+            }
+            return report;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 对账一个优惠券
+     */
+    private Discrepancy reconcile(Long voucherId) {
+        Discrepancy discrepancy = new Discrepancy();
+        discrepancy.setVoucherId(voucherId);
+        long now = System.currentTimeMillis();
+
+        // 1. redis已购数量 -> 数据库订单数
+        Map<Long, Integer> missing = new HashMap<>();
+        seckillStockClient.scanBuyers(voucherId, chunkSize, chunk -> {
+            Map<Long, Integer> orders = orderCounts(voucherId, chunk.keySet());
+            chunk.forEach((userId, bought) -> {
+                int diff = bought - orders.getOrDefault(userId, 0);
+                if (diff > 0) {
+                    missing.put(userId, diff);
+                }
+            });
+            pause();
+        });
+        Map<Long, Long> since = missingOrderSince.computeIfAbsent(voucherId, k -> new ConcurrentHashMap<>());
+        // 已经落库的不再跟踪
+        since.keySet().retainAll(missing.keySet());
+        missing.forEach((userId, diff) -> {
+            Long first = since.putIfAbsent(userId, now);
+            if (first != null && now - first >= gracePeriod) {
+                discrepancy.getMissingInDb().put(userId, diff);
+            }
+        });
+        // 超过grace-period的订单也可能还在stream中: 重试(reclaim-min-idle * max-deliveries)或者积压的时间比grace-period长,
+        // 这时归还库存会被再卖一次, 之后订单落库时数据库的库存已经不够了. 还在stream中的用户下一轮再确认
+        if (!discrepancy.getMissingInDb().isEmpty()) {
+            discrepancy.getMissingInDb().keySet().removeAll(seckillOrderReclaimer.inFlightBuyers(voucherId, chunkSize));
+        }
+
+        // 2. 数据库订单数 -> redis已购数量
+        long lastUserId = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Map<String, Object>> rows = voucherOrderMapper.selectMaps(new QueryWrapper<VoucherOrder>()
+                    .select("user_id", "COUNT(*) AS cnt")
+                    .eq("voucher_id", voucherId)
+                    .gt("user_id", lastUserId)
+                    .groupBy("user_id")
+                    .orderByAsc("user_id")
+                    .last("LIMIT " + chunkSize));
+            if (rows.isEmpty()) {
+                break;
+            }
+            List<Long> userIds = new ArrayList<>(rows.size());
+            rows.forEach(row -> userIds.add(((Number) row.get("user_id")).longValue()));
+            List<Integer> bought = seckillStockClient.bought(voucherId, userIds);
+            for (int i = 0; i < rows.size(); i++) {
+                int diff = ((Number) rows.get(i).get("cnt")).intValue() - bought.get(i);
+                if (diff > 0) {
+                    discrepancy.getMissingInRedis().put(userIds.get(i), diff);
+                }
+            }
+            lastUserId = userIds.get(userIds.size() - 1);
+            pause();
+        }
+
+        // 3. 修复下单资格, 撤销资格会同时归还库存, redis总量不变; 补充资格会让redis总量增加
+        if (repair) {
+            discrepancy.getMissingInDb().forEach((userId, diff) -> {
+                seckillStockClient.release(voucherId, userId, diff);
+                since.remove(userId);
+            });
+            discrepancy.getMissingInRedis().forEach((userId, diff) -> seckillStockClient.grant(voucherId, userId, diff));
+        }
+
+        // 4. 比较总量, 先收回宕机节点的租约, 否则它们租走的库存一直算在总量里卖不出去
+        seckillStockLease.reclaimDead(voucherId);
+        Long redisTotal = seckillStockClient.redisTotal(voucherId);
+        Long dbTotal = seckillVoucherMapper.selectStockTotal(voucherId);
+        discrepancy.setRedisTotal(redisTotal);
+        discrepancy.setDbTotal(dbTotal);
+        if (redisTotal == null || dbTotal == null || redisTotal.equals(dbTotal)) {
+            totalDiffSince.remove(voucherId);
+        } else {
+            long diff = dbTotal - redisTotal;
+            long[] previous = totalDiffSince.get(voucherId);
+            if (previous == null || previous[0] != diff) {
+                totalDiffSince.put(voucherId, new long[]{diff, now});
+            } else if (now - previous[1] >= gracePeriod) {
+                discrepancy.setStockDiff(diff);
+                if (repair) {
+                    // 差值加到第一个库存key上, 分片模式下其他分片可以借
+                    stringRedisTemplate.opsForValue().increment(seckillStockClient.stockKeys(voucherId).get(0), diff);
+                    if (diff > 0) {
+                        seckillStockClient.restocked(voucherId, (int) diff);
+                    }
+                    totalDiffSince.remove(voucherId);
+                }
+            }
+        }
+        discrepancy.setRepaired(repair && !discrepancy.isEmpty());
+        return discrepancy;
+    }
+
+    /**
+     * 这一批用户在数据库中的订单数, 一条IN查询
+     */
+    private Map<Long, Integer> orderCounts(Long voucherId, Set<Long> userIds) {
+        List<Map<String, Object>> rows = voucherOrderMapper.selectMaps(new QueryWrapper<VoucherOrder>()
+                .select("user_id", "COUNT(*) AS cnt")
+                .eq("voucher_id", voucherId)
+                .in("user_id", userIds)
+                .groupBy("user_id"));
+        Map<Long, Integer> counts = new HashMap<>(rows.size() * 2);
+        rows.forEach(row -> counts.put(((Number) row.get("user_id")).longValue(), ((Number) row.get("cnt")).intValue()));
+        return counts;
+    }
+
+    /**
+     * 每一批之后暂停, 订单积压时暂停更久, 给秒杀让路
+     */
+    private void pause() {
+        long millis = seckillAdmissionControl.accepting() ? chunkPause : chunkPause * BACKLOG_PAUSE_FACTOR;
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 上一次对账的结果
+     */
+    public List<Discrepancy> lastReport() {
+        return lastReport;
+    }
+
+    /**
+     * 上一次对账完成的时间
+     */
+    public LocalDateTime lastRunAt() {
+        return lastRunAt;
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀优惠券描述(秒杀时间、每人限购数量、状态)
+ * <p>
+ * TODO:
+ *      - 异步秒杀只在lua脚本中判断库存, 丢掉了原来查询数据库时对开始时间、结束时间的判断, 活动开始之前和结束之后都能抢到.
+ *      - 新增秒杀优惠券时把描述写入redis的hash(seckill:voucher:{voucherId}, 字段begin/end为毫秒时间戳, limit, status),
+ *        seckill.lua用redis的时间原子地判断, 不会有各个节点时钟不一致的问题.
+ *      - 每人限购: buckets大于0时每人限购计数存放在按用户id分桶的hash中(见SeckillStockClient), buckets为0表示老的下单用户集合, 只能一人一单.
+ *        campaign/campaignLimit为所属活动和每人在活动中的限购数量, 只在没有分片的优惠券上判断.
+ *      - 本地缓存一份描述, 在生成订单id和执行脚本之前预先过滤掉未开始、已结束、已下架的请求.
+ *        redis中没有描述的老优惠券在本地缓存未命中时从数据库加载一次并回填到redis, 之后不再访问数据库.
+ * </p>
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@Component
+public class SeckillVoucherCache {
+
+    // 上架
+    public static final int STATUS_ON_SHELF = 1;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    // 每个限购计数桶平均存放的用户数, 0表示新优惠券也使用下单用户集合
+    @Value("${hmdp.seckill.quota-bucket-users:64}")
+    private int quotaBucketUsers;
+
+    /**
+     * 优惠券id -> 描述, 不存在的优惠券缓存为NONE
+     */
+    private final Cache<Long, Descriptor> descriptors =
+            CacheUtil.newLRUCache(LOCAL_CACHE_CAPACITY, TimeUnit.SECONDS.toMillis(SECKILL_VOUCHER_CACHE_TTL));
+
+    private static final Descriptor NONE = new Descriptor();
+
+    /**
+     * 秒杀优惠券描述
+     */
+    @Data
+    public static class Descriptor {
+        // 开始时间(毫秒时间戳)
+        private long begin;
+        // 结束时间(毫秒时间戳)
+        private long end;
+        // 每人限购数量
+        private int limit = 1;
+        // 优惠券状态, 1: 上架
+        private int status = STATUS_ON_SHELF;
+        // 每人限购计数的分桶个数, 0表示使用下单用户集合
+        private int buckets;
+        // 所属活动的id, 0表示没有活动
+        private long campaign;
+        // 每人在整个活动中的限购数量
+        private int campaignLimit;
+
+        /**
+         * 是否使用分桶的每人限购计数
+         */
+        public boolean quota() {
+            return buckets > 0;
+        }
+
+        /**
+         * 检查是否可以秒杀
+         *
+         * @param now 当前时间(毫秒)
+         * @return 不能秒杀的原因, 可以秒杀返回null
+         */
+        public String check(long now) {
+            if (status != STATUS_ON_SHELF) {
+                return "优惠券已下架";
+            }
+            if (now < begin) {
+                return "活动尚未开始哟，请耐心等待~";
+            }
+            if (now >= end) {
+                return "活动已结束，下次记着早点参与呦~";
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 新增或修改秒杀优惠券之后写入描述, 必须在写入库存之前调用
+     *
+     * @param voucher 优惠券, 包含秒杀时间、库存和限购数量
+     */
+    public void publish(Voucher voucher) {
+        int stock = voucher.getStock() == null ? 0 : voucher.getStock();
+        publish(voucher, quotaBucketUsers > 0 ? bucketsOf(stock) : 0);
+    }
+
+    private void publish(Voucher voucher, int buckets) {
+        Descriptor descriptor = new Descriptor();
+        descriptor.setBegin(toMillis(voucher.getBeginTime(), 0L));
+        descriptor.setEnd(toMillis(voucher.getEndTime(), Long.MAX_VALUE));
+        descriptor.setStatus(voucher.getStatus() == null ? STATUS_ON_SHELF : voucher.getStatus());
+        // 下单用户集合只能一人一单
+        descriptor.setBuckets(buckets);
+        descriptor.setLimit(buckets > 0 && voucher.getUserLimit() != null ? Math.max(voucher.getUserLimit(), 1) : 1);
+        if (buckets > 0 && voucher.getCampaignId() != null && voucher.getCampaignLimit() != null) {
+            descriptor.setCampaign(voucher.getCampaignId());
+            descriptor.setCampaignLimit(voucher.getCampaignLimit());
+        }
+        publish(voucher.getId(), descriptor);
+    }
+
+    /**
+     * 分桶个数, 最多有stock个用户, 每个桶平均quotaBucketUsers个用户
+     */
+    private int bucketsOf(long stock) {
+        return (int) Math.max(1L, (stock + quotaBucketUsers - 1) / quotaBucketUsers);
+    }
+
+    /**
+     * 查询描述, 本地缓存 -> redis -> 数据库(回填redis)
+     *
+     * @param voucherId 优惠券id
+     * @return 描述, 优惠券不存在返回null
+     */
+    public Descriptor get(Long voucherId) {
+        Descriptor descriptor = descriptors.get(voucherId, false);
+        if (descriptor == null) {
+            descriptor = load(voucherId);
+            descriptors.put(voucherId, descriptor == null ? NONE : descriptor);
+        }
+        return descriptor == NONE ? null : descriptor;
+    }
+
+    private Descriptor load(Long voucherId) {
+        Map<Object, Object> hash = stringRedisTemplate.opsForHash().entries(SECKILL_VOUCHER_KEY + voucherId);
+        if (!hash.isEmpty()) {
+            Descriptor descriptor = new Descriptor();
+            descriptor.setBegin(Long.parseLong(hash.get("begin").toString()));
+            descriptor.setEnd(Long.parseLong(hash.get("end").toString()));
+            descriptor.setLimit(Integer.parseInt(hash.get("limit").toString()));
+            descriptor.setStatus(Integer.parseInt(hash.get("status").toString()));
+            descriptor.setBuckets(parseInt(hash.get("buckets")));
+            descriptor.setCampaign(parseLong(hash.get("campaign")));
+            descriptor.setCampaignLimit(parseInt(hash.get("campaignLimit")));
+            return descriptor;
+        }
+        // 没有描述的老优惠券, 从数据库加载一次
+        SeckillVoucher seckillVoucher = seckillVoucherMapper.selectById(voucherId);
+        Voucher voucher = seckillVoucher == null ? null : voucherMapper.selectById(voucherId);
+        if (voucher == null) {
+            return null;
+        }
+        voucher.setBeginTime(seckillVoucher.getBeginTime());
+        voucher.setEndTime(seckillVoucher.getEndTime());
+        voucher.setUserLimit(seckillVoucher.getUserLimit());
+        voucher.setCampaignId(seckillVoucher.getCampaignId());
+        voucher.setCampaignLimit(seckillVoucher.getCampaignLimit());
+        // 一人一单的老优惠券继续使用下单用户集合; 限购多件的按照总量(剩余库存 + 订单数)分桶
+        boolean quota = (seckillVoucher.getUserLimit() != null && seckillVoucher.getUserLimit() > 1)
+                || seckillVoucher.getCampaignId() != null;
+        Long total = quota ? seckillVoucherMapper.selectStockTotal(voucherId) : null;
+        publish(voucher, quota && quotaBucketUsers > 0 && total != null ? bucketsOf(total) : 0);
+        return descriptors.get(voucherId, false);
+    }
+
+    private void publish(Long voucherId, Descriptor descriptor) {
+        Map<String, String> hash = new HashMap<>(8);
+        hash.put("begin", String.valueOf(descriptor.getBegin()));
+        hash.put("end", String.valueOf(descriptor.getEnd()));
+        hash.put("limit", String.valueOf(descriptor.getLimit()));
+        hash.put("status", String.valueOf(descriptor.getStatus()));
+        hash.put("buckets", String.valueOf(descriptor.getBuckets()));
+        hash.put("campaign", String.valueOf(descriptor.getCampaign()));
+        hash.put("campaignLimit", String.valueOf(descriptor.getCampaignLimit()));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + voucherId, hash);
+        descriptors.put(voucherId, descriptor);
+    }
+
+    private static int parseInt(Object value) {
+        return value == null ? 0 : Integer.parseInt(value.toString());
+    }
+
+    private static long parseLong(Object value) {
+        return value == null ? 0L : Long.parseLong(value.toString());
+    }
+
+    private static long toMillis(LocalDateTime time, long defaultValue) {
+        return time == null ? defaultValue : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
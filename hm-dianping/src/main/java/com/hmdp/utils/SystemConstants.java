@@ -8,5 +8,14 @@ public class SystemConstants {
 
     public static final String LUA_SCRIPT_UNLOCK_FILENAME = "unlock.lua";
     public static final String LUA_SCRIPT_SECKILL_FILENAME = "seckill.lua";
+    public static final String LUA_SCRIPT_SECKILL_SHARD_FILENAME = "seckill_shard.lua";
+    public static final String LUA_SCRIPT_SECKILL_BORROW_FILENAME = "seckill_borrow.lua";
+    public static final String LUA_SCRIPT_SECKILL_RELEASE_FILENAME = "seckill_release.lua";
+    public static final String LUA_SCRIPT_SECKILL_QUOTA_RELEASE_FILENAME = "seckill_quota_release.lua";
+    public static final String LUA_SCRIPT_SECKILL_LEASE_FILENAME = "seckill_lease.lua";
+    public static final String LUA_SCRIPT_SECKILL_LEASE_RETURN_FILENAME = "seckill_lease_return.lua";
+    public static final String LUA_SCRIPT_SECKILL_TOKEN_BUCKET_FILENAME = "seckill_token_bucket.lua";
     public static final String LUA_SCRIPT_REMOVE_FEED_FILENAME = "remove_feed.lua";
+    public static final String LUA_SCRIPT_FEED_TRIM_FILENAME = "feed_trim.lua";
+    public static final String LUA_SCRIPT_BLOG_LIKE_FILENAME = "blog_like.lua";
 }
@@ -0,0 +1,14 @@
+-- 点赞/取消点赞, 修改点赞用户集合和待写入数据库的点赞数在同一个脚本中完成
+-- KEYS[1]是点赞用户集合(blog:liked:{blogId}), KEYS[2]是待写入数据库的点赞数(hash, field为笔记id)
+-- ARGV[1]是用户id, ARGV[2]是点赞时间(毫秒), ARGV[3]是笔记id
+-- 返回1表示点赞, 0表示取消点赞
+
+if (redis.call('zscore', KEYS[1], ARGV[1])) then
+    -- 已经点赞, 取消点赞
+    redis.call('zrem', KEYS[1], ARGV[1])
+    redis.call('hincrby', KEYS[2], ARGV[3], -1)
+    return 0
+end
+redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+redis.call('hincrby', KEYS[2], ARGV[3], 1)
+return 1
@@ -65,6 +65,22 @@ CREATE TABLE `tb_blog_comments`  (
 -- Records of tb_blog_comments
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_feed_archive
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_feed_archive`;
+CREATE TABLE `tb_feed_archive`  (
+  `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '收件箱所属的用户id',
+  `ts` bigint(20) UNSIGNED NOT NULL COMMENT '笔记推送到收件箱的时间戳(毫秒), 和收件箱zset的score相同',
+  `blog_id` bigint(20) UNSIGNED NOT NULL COMMENT '笔记id',
+  PRIMARY KEY (`user_id`, `ts`, `blog_id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+-- 收件箱(feed:{userId})只保留最新的inbox-capacity条, 更早的由FeedArchiver移到这里. 主键就是查询顺序, 按(user_id, ts)倒序翻页不需要回表
+
+-- ----------------------------
+-- Records of tb_feed_archive
+-- ----------------------------
+
 -- ----------------------------
 -- Table structure for tb_follow
 -- ----------------------------
@@ -74,8 +90,10 @@ CREATE TABLE `tb_follow`  (
   `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '用户id',
   `follow_user_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的用户id',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_follow_user`(`follow_user_id`, `id`) USING BTREE COMMENT '按id分页查询粉丝'
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+-- 已有的库: ALTER TABLE `tb_follow` ADD INDEX `idx_follow_user`(`follow_user_id`, `id`);
 
 -- ----------------------------
 -- Records of tb_follow
@@ -91,9 +109,14 @@ CREATE TABLE `tb_seckill_voucher`  (
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `begin_time` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00' COMMENT '生效时间',
   `end_time` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00' COMMENT '失效时间',
+  `user_limit` int(8) UNSIGNED NOT NULL DEFAULT 1 COMMENT '每人限购数量',
+  `campaign_id` bigint(20) UNSIGNED NULL DEFAULT NULL COMMENT '所属活动的id',
+  `campaign_limit` int(8) UNSIGNED NULL DEFAULT NULL COMMENT '每人在整个活动中的限购数量',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   PRIMARY KEY (`voucher_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci COMMENT = '秒杀优惠券表，与优惠券是一对一关系' ROW_FORMAT = Compact;
+-- 已有的库: ALTER TABLE `tb_seckill_voucher` ADD COLUMN `user_limit` int(8) UNSIGNED NOT NULL DEFAULT 1 AFTER `end_time`,
+--     ADD COLUMN `campaign_id` bigint(20) UNSIGNED NULL DEFAULT NULL AFTER `user_limit`, ADD COLUMN `campaign_limit` int(8) UNSIGNED NULL DEFAULT NULL AFTER `campaign_id`;
 
 -- ----------------------------
 -- Records of tb_seckill_voucher
@@ -1267,6 +1290,7 @@ CREATE TABLE `tb_voucher_order`  (
   `id` bigint(20) NOT NULL COMMENT '主键',
   `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '下单的用户id',
   `voucher_id` bigint(20) UNSIGNED NOT NULL COMMENT '购买的代金券id',
+  `seq` int(8) UNSIGNED NOT NULL DEFAULT 1 COMMENT '订单在用户这个代金券下的序号, 从1开始, 只增不减, 可能不连续',
   `pay_type` tinyint(1) UNSIGNED NOT NULL DEFAULT 1 COMMENT '支付方式 1：余额支付；2：支付宝；3：微信',
   `status` tinyint(1) UNSIGNED NOT NULL DEFAULT 1 COMMENT '订单状态，1：未支付；2：已支付；3：已核销；4：已取消；5：退款中；6：已退款',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '下单时间',
@@ -1274,8 +1298,14 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_voucher_user`(`voucher_id`, `user_id`, `seq`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+-- 已有的库: ALTER TABLE `tb_voucher_order` ADD COLUMN `seq` int(8) UNSIGNED NOT NULL DEFAULT 1 AFTER `voucher_id`,
+--     DROP INDEX `uk_voucher_user`, ADD UNIQUE INDEX `uk_voucher_user`(`voucher_id`, `user_id`, `seq`);
+-- voucher_id在前, 限购的判断和按优惠券分页扫描订单(库存对账)都能使用这个索引.
+-- 每人限购N件时同一个用户有N条订单, seq由redis中只增不减的计数器(seckill:seq)分配, 不会和已经落库的订单重复;
+-- 重复投递的消息seq相同, 仍然会被唯一索引忽略
 
 -- ----------------------------
 -- Records of tb_voucher_order
@@ -0,0 +1,25 @@
+-- 收件箱归档之后删除已经归档的笔记, 元素个数回到上限以内时重写收件箱, 恢复紧凑编码
+-- KEYS[1]是收件箱key
+-- ARGV[1]是收件箱上限, ARGV[2..]是已经写入归档的笔记id
+-- 返回删除的个数
+
+local removed = 0
+-- unpack的参数个数有限制, 分批删除
+for i = 2, #ARGV, 1000 do
+    removed = removed + redis.call('zrem', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV)))
+end
+-- 超过zset-max-listpack-entries之后编码变成skiplist, 删除元素不会变回来. 删除之后再写回, 重新使用listpack
+local n = redis.call('zcard', KEYS[1])
+if (n > 0 and n <= tonumber(ARGV[1]) and redis.call('object', 'encoding', KEYS[1]) == 'skiplist') then
+    local entries = redis.call('zrange', KEYS[1], 0, -1, 'withscores')
+    local args = {}
+    for i = 1, #entries, 2 do
+        args[#args + 1] = entries[i + 1]
+        args[#args + 1] = entries[i]
+    end
+    redis.call('del', KEYS[1])
+    for i = 1, #args, 1000 do
+        redis.call('zadd', KEYS[1], unpack(args, i, math.min(i + 999, #args)))
+    end
+end
+return removed
@@ -15,24 +15,84 @@ local id = ARGV[3]
 local stockKey = 'seckill:stock:' .. voucherId
 -- 2.2. 订单key, 存储的值是userId
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.3. 优惠券描述key, hash结构, begin/end为秒杀开始/结束时间(毫秒), status为1表示上架
+-- limit为每人限购数量, buckets为每人限购计数的分桶个数(0表示使用订单key), campaign/campaignLimit为所属活动和活动限购数量
+local voucherKey = 'seckill:voucher:' .. voucherId
 
 -- 脚本业务
+-- 3.0. 判断优惠券状态和秒杀时间, 使用redis的时间. 没有描述的老优惠券不判断
+local meta = redis.call('hmget', voucherKey, 'begin', 'end', 'status', 'limit', 'buckets', 'campaign', 'campaignLimit')
+if (meta[1]) then
+    if (tonumber(meta[3]) ~= 1) then
+        -- 已下架, 返回5
+        return 5
+    end
+    local t = redis.call('time')
+    local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+    if (now < tonumber(meta[1])) then
+        -- 未开始, 返回3
+        return 3
+    end
+    if (now >= tonumber(meta[2])) then
+        -- 已结束, 返回4
+        return 4
+    end
+end
 -- 3.1. 判断库存是否充足get stockKey
 if (tonumber(redis.call('get', stockKey)) <= 0) then
     -- 3.2. 库存不足, 返回1
     return 1
 end
 
--- 3.2. 判断用户是否下单 SISMEMBER orderKey userId
-if (redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3. 存在, 说明重复下单, 返回2
-    return 2
-end
+local left
+local seq = 1
+local buckets = tonumber(meta[5]) or 0
+if (buckets > 0) then
+    -- 3.2. 每人限购模式, 已购数量存放在按用户id分桶的hash中, 每个hash只有几十个用户, 使用紧凑编码
+    local quotaKey = 'seckill:quota:' .. voucherId .. ':' .. (tonumber(userId) % buckets)
+    -- 订单seq计数桶, 只增不减, 归还限购数量之后再次购买也不会和已经落库的订单重复
+    local seqKey = 'seckill:seq:' .. voucherId .. ':' .. (tonumber(userId) % buckets)
+    local bought = tonumber(redis.call('hget', quotaKey, userId)) or 0
+    if (bought >= tonumber(meta[4])) then
+        -- 3.3. 达到每人限购数量, 返回2
+        return 2
+    end
+    -- 3.3.1. 活动限购, 同一个活动的所有优惠券共用一个计数, 固定1024个桶
+    local campaignKey
+    if ((tonumber(meta[6]) or 0) > 0) then
+        campaignKey = 'seckill:campaign:' .. meta[6] .. ':' .. (tonumber(userId) % 1024)
+        if ((tonumber(redis.call('hget', campaignKey, userId)) or 0) >= tonumber(meta[7])) then
+            -- 达到活动限购数量, 返回6
+            return 6
+        end
+    end
+    -- 3.4. 扣库存, 已购数量和已售数量加一, seq从seq计数桶分配
+    left = redis.call('incrby', stockKey, -1)
+    redis.call('hincrby', quotaKey, userId, 1)
+    seq = redis.call('hincrby', seqKey, userId, 1)
+    redis.call('incr', 'seckill:sold:' .. voucherId)
+    if (campaignKey) then
+        redis.call('hincrby', campaignKey, userId, 1)
+    end
+else
+    -- 3.2. 判断用户是否下单 SISMEMBER orderKey userId
+    if (redis.call('sismember', orderKey, userId) == 1) then
+        -- 3.3. 存在, 说明重复下单, 返回2
+        return 2
+    end
 
--- 3.4. 扣库存 incrby stockKey -1
-redis.call('incrby', stockKey, -1)
--- 3.5. 下单(保存用户)
-redis.call('sadd', orderKey, userId)
+    -- 3.4. 扣库存 incrby stockKey -1
+    left = redis.call('incrby', stockKey, -1)
+    -- 3.5. 下单(保存用户)
+    redis.call('sadd', orderKey, userId)
+end
 -- 3.6. 直接向stream中存入信息 XADD stream.orders * k1 v1 k2 v2, 订单id直接改成id, 这样和VoucherOrder实体类的成员变量名称一致
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', id)
+redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', id, 'seq', seq)
+-- 3.6.1. 订单状态: 排队中, 同时保存下单用户, 保存30分钟, 消费者落库之后改成PERSISTED或者FAILED
+redis.call('hset', 'seckill:status:' .. id, 'status', 'QUEUED', 'userId', userId)
+redis.call('expire', 'seckill:status:' .. id, 1800)
+-- 3.7. 卖出最后一件时广播售罄, 各个节点在本地标记, 之后的请求不再访问redis
+if (left == 0) then
+    redis.call('publish', 'seckill:soldout', voucherId)
+end
 return 0
\ No newline at end of file
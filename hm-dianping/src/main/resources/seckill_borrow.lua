@@ -0,0 +1,11 @@
+-- 从兄弟分片借库存, 一次借走剩余库存的一半(向上取整), 多次借用之后各个分片的库存会趋于平衡
+-- KEYS[1]是被借用的分片库存key
+-- 返回借到的库存数量, 0表示这个分片也没有库存了
+
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+local n = math.ceil(stock / 2)
+redis.call('decrby', KEYS[1], n)
+return n
@@ -0,0 +1,13 @@
+-- 租用库存: 从库存中一次取走一批, 记在节点的租约上, 节点在本地分配
+-- KEYS[1]是库存key, KEYS[2]是租约hash
+-- ARGV[1]是节点名称, ARGV[2]是租用的数量
+-- 返回实际租到的数量, 库存不足时能租多少租多少
+
+local stock = tonumber(redis.call('get', KEYS[1])) or 0
+local n = math.min(stock, tonumber(ARGV[2]))
+if (n <= 0) then
+    return 0
+end
+redis.call('decrby', KEYS[1], n)
+redis.call('hincrby', KEYS[2], ARGV[1], n)
+return n
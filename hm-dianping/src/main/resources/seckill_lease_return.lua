@@ -0,0 +1,23 @@
+-- 归还租约: 节点空闲或者关闭时归还没有卖出的库存, 库存对账收回心跳过期的节点的全部租约
+-- KEYS[1]是库存key, KEYS[2]是租约hash
+-- ARGV[1]是节点名称, ARGV[2]是归还的数量, 不传表示收回全部
+-- 返回实际归还的数量, 不超过租约上记录的数量
+
+local held = tonumber(redis.call('hget', KEYS[2], ARGV[1])) or 0
+local n = held
+if (ARGV[2]) then
+    n = math.min(held, tonumber(ARGV[2]))
+end
+if (n <= 0) then
+    if (not ARGV[2]) then
+        redis.call('hdel', KEYS[2], ARGV[1])
+    end
+    return 0
+end
+if (n == held) then
+    redis.call('hdel', KEYS[2], ARGV[1])
+else
+    redis.call('hincrby', KEYS[2], ARGV[1], -n)
+end
+redis.call('incrby', KEYS[1], n)
+return n
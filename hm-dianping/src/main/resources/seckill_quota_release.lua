@@ -0,0 +1,24 @@
+-- 每人限购模式下撤销下单资格: 减少用户的已购数量和已售数量, 归还库存. 写入订单消息失败时回滚, 库存对账时释放没有落库的订单
+-- KEYS[1]是库存key, KEYS[2]是用户所在的限购计数桶, KEYS[3]是已售数量key(分片或者不分片都可以), 可选的KEYS[4]是活动限购计数桶
+-- ARGV[1]是用户id, ARGV[2]是撤销的数量
+-- 返回实际撤销的数量, 不超过用户的已购数量
+
+local bought = tonumber(redis.call('hget', KEYS[2], ARGV[1])) or 0
+local n = math.min(bought, tonumber(ARGV[2]))
+if (n <= 0) then
+    return 0
+end
+if (n == bought) then
+    redis.call('hdel', KEYS[2], ARGV[1])
+else
+    redis.call('hincrby', KEYS[2], ARGV[1], -n)
+end
+redis.call('decrby', KEYS[3], n)
+redis.call('incrby', KEYS[1], n)
+if (KEYS[4]) then
+    local left = redis.call('hincrby', KEYS[4], ARGV[1], -n)
+    if (left <= 0) then
+        redis.call('hdel', KEYS[4], ARGV[1])
+    end
+end
+return n
@@ -0,0 +1,9 @@
+-- 撤销下单资格: 移除下单用户, 归还库存. 分片库存模式下写入订单消息失败时回滚, 库存对账时释放没有落库的订单
+-- KEYS[1]是库存key, KEYS[2]是下单用户集合key(分片或者不分片都可以)
+-- ARGV[1]是用户id
+
+if (redis.call('srem', KEYS[2], ARGV[1]) == 1) then
+    redis.call('incr', KEYS[1])
+    return 1
+end
+return 0
@@ -0,0 +1,49 @@
+-- 分片库存模式下的秒杀, 只操作用户所在的一个分片, 所有key使用相同的hash tag, 在redis集群中位于同一个slot
+-- KEYS[1]是分片库存key, KEYS[2]是分片下单用户集合key
+-- 每人限购模式下还有KEYS[3]: 用户所在的分片限购计数桶, KEYS[4]: 分片已售数量, KEYS[5]: 用户所在的分片seq计数桶, 此时不使用KEYS[2]
+-- ARGV[1]是用户id, ARGV[2]和ARGV[3]是秒杀开始/结束时间(毫秒), 描述key和分片key不在同一个slot, 由调用者传入
+-- ARGV[4]是每人限购数量
+-- 返回{结果, seq}, 结果和seckill.lua一致, seq为订单在用户这个优惠券下的序号, 只增不减
+
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local userId = ARGV[1]
+
+-- 0. 使用redis的时间判断秒杀时间, 未开始返回3, 已结束返回4
+if (ARGV[2]) then
+    local t = redis.call('time')
+    local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+    if (now < tonumber(ARGV[2])) then
+        return {3, 0}
+    end
+    if (now >= tonumber(ARGV[3])) then
+        return {4, 0}
+    end
+end
+
+-- 1. 先判断是否重复下单(达到限购数量), 用户总是路由到同一个分片, 所以只需要检查这一个分片. 重复下单的请求不能触发借库存
+local bought = 0
+if (KEYS[3]) then
+    bought = tonumber(redis.call('hget', KEYS[3], userId)) or 0
+    if (bought >= tonumber(ARGV[4])) then
+        return {2, 0}
+    end
+elseif (redis.call('sismember', orderKey, userId) == 1) then
+    return {2, 0}
+end
+
+-- 2. 判断分片库存是否充足, 不足返回1, 由调用者向其他分片借库存
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    return {1, 0}
+end
+
+-- 3. 扣库存, 记录用户
+redis.call('incrby', stockKey, -1)
+if (KEYS[3]) then
+    redis.call('incr', KEYS[4])
+    redis.call('hincrby', KEYS[3], userId, 1)
+    return {0, redis.call('hincrby', KEYS[5], userId, 1)}
+end
+redis.call('sadd', orderKey, userId)
+return {0, 1}
@@ -0,0 +1,36 @@
+-- 令牌桶限流, 所有节点共享同一个桶
+-- KEYS[1]: 令牌桶key, hash结构, tokens: 剩余令牌(可以是小数), ts: 上次补充令牌的时间(毫秒)
+-- ARGV[1]: 每秒补充的令牌数, ARGV[2]: 桶容量
+-- 返回1表示放行, 0表示拒绝
+-- 使用redis的时间, 不受各个节点时钟误差的影响, 需要redis5以上(脚本按效果复制)
+
+local key = KEYS[1]
+local rate = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[2])
+
+local t = redis.call('time')
+local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+
+local bucket = redis.call('hmget', key, 'tokens', 'ts')
+local tokens = tonumber(bucket[1])
+local ts = tonumber(bucket[2])
+if (tokens == nil or ts == nil) then
+    -- 第一次访问, 桶是满的
+    tokens = capacity
+    ts = now
+end
+
+-- 1. 按照经过的时间补充令牌, 不超过容量
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+
+-- 2. 取一个令牌
+local allowed = 0
+if (tokens >= 1) then
+    tokens = tokens - 1
+    allowed = 1
+end
+
+-- 3. 写回, 桶补满需要的时间之后过期, 过期之后等同于满桶
+redis.call('hset', key, 'tokens', tostring(tokens), 'ts', now)
+redis.call('pexpire', key, math.ceil(capacity * 1000 / rate) + 1000)
+return allowed
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.hmdp.constant.ShopConstant.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_FPP;
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_SHOP;
+
+/**
+ * 布隆过滤器测试
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@SpringBootTest
+class BloomFilterClientTest {
+
+    @Resource
+    private BloomFilterClient bloomFilterClient;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * 重建店铺布隆过滤器, 数据库中存在的店铺一定判断为存在, 不存在的id误判率不超过期望误判率
+     */
+    @Test
+    void testRebuild() {
+        bloomFilterClient.rebuild(BLOOM_FILTER_SHOP);
+        List<Object> ids = shopMapper.selectObjs(new LambdaQueryWrapper<Shop>().select(Shop::getId));
+        for (Object id : ids) {
+            Assertions.assertTrue(bloomFilterClient.mightContain(CACHE_SHOP_KEY, id), "店铺" + id + "判断为不存在");
+        }
+
+        int count = 0;
+        int total = 10000;
+        for (long id = 100000000L; id < 100000000L + total; id++) {
+            if (bloomFilterClient.mightContain(CACHE_SHOP_KEY, id)) {
+                count++;
+            }
+        }
+        double rate = (double) count / total;
+        System.out.println("误判个数 = " + count + ", 估算误判率 = " + bloomFilterClient.falsePositiveRate(BLOOM_FILTER_SHOP));
+        Assertions.assertTrue(rate <= BLOOM_FILTER_FPP, "误判率" + rate + "超过" + BLOOM_FILTER_FPP);
+    }
+}
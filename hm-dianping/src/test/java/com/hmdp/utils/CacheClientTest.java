@@ -1,7 +1,56 @@
 package com.hmdp.utils;
 
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
+/**
+ * 缓存工具类测试
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@SpringBootTest
 public class CacheClientTest {
 
+    private static final String EARLY_KEY_PREFIX = "test:cache:early:";
+
+    private static final String LOCK_KEY_PREFIX = "test:lock:early:";
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 同一个热点key反复读取, 本地缓存在提前刷新的区间之前失效, 过期之前一定能触发提前刷新
+     */
+    @Test
+    void testEarlyRefreshWithLocalCache() throws InterruptedException {
+        long id = 1L;
+        String key = EARLY_KEY_PREFIX + id;
+        Shop shop = new Shop().setId(id).setName("early");
+        // 2秒后过期, 重建耗时500ms, 提前刷新的区间(500ms * beta * 4)覆盖整个有效期, 不放入本地缓存, 每次读取都参与判断
+        cacheClient.setWithEarlyRefresh(key, shop, 500L, 2L, TimeUnit.SECONDS);
+        long early = cacheClient.earlyRefreshMetrics().get("early");
+        try {
+            long deadline = System.currentTimeMillis() + 1900;
+            while (System.currentTimeMillis() < deadline) {
+                assertNotNull(cacheClient.queryWithEarlyRefresh(EARLY_KEY_PREFIX, LOCK_KEY_PREFIX, id, Shop.class,
+                        i -> shop, 2L, TimeUnit.SECONDS));
+                Thread.sleep(10);
+            }
+            assertTrue(cacheClient.earlyRefreshMetrics().get("early") > early);
+        } finally {
+            cacheClient.delete(key);
+            stringRedisTemplate.delete(LOCK_KEY_PREFIX + id);
+        }
+    }
 }
@@ -13,6 +13,7 @@ import com.hmdp.entity.Shop;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.impl.ShopServiceImpl;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.redis.core.*;
@@ -22,9 +23,11 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -80,6 +83,33 @@ public class RedisIdToolTest {
         System.out.println("time = " + (end - begin));
     }
 
+    /**
+     * 号段模式下多线程生成的id不重复, 每个线程拿到的id单调递增
+     */
+    @Test
+    public void testSegmentId() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(es.submit(() -> {
+                long last = 0;
+                for (int j = 0; j < 2000; j++) {
+                    long id = redisIdTool.nextId("order");
+                    if (id <= last) {
+                        return false;
+                    }
+                    last = id;
+                    ids.add(id);
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> future : futures) {
+            Assertions.assertTrue(future.get());
+        }
+        Assertions.assertEquals(50 * 2000, ids.size());
+    }
+
     @Test
     public void testHotKey() {
         Integer id = 1;
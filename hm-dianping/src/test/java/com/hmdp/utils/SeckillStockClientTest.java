@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+
+/**
+ * 分片库存测试
+ *
+ * @author DELL_
+ * @date 2026/10/17
+ */
+@SpringBootTest
+class SeckillStockClientTest {
+
+    private static final Long VOUCHER_ID = 900001L;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 100个库存分成8个分片, 300个用户并发抢购, 每个用户抢两次, 只能成功100次, 不能超卖也不能重复下单.
+     * 只测试扣减库存, 不写入订单消息, 否则消费者会去处理这些不存在的优惠券的订单
+     */
+    @Test
+    void testNoOversell() throws Exception {
+        seckillStockClient.init(VOUCHER_ID, 100, 8);
+        ExecutorService es = Executors.newFixedThreadPool(50);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (long userId = 1; userId <= 300; userId++) {
+                for (int i = 0; i < 2; i++) {
+                    long id = userId;
+                    futures.add(es.submit(() -> seckillStockClient.reserve(VOUCHER_ID, id, null)));
+                }
+            }
+            int success = 0;
+            for (Future<Long> future : futures) {
+                if (future.get() == 0) {
+                    success++;
+                }
+            }
+            Assertions.assertEquals(100, success);
+            Assertions.assertEquals(0, seckillStockClient.remaining(VOUCHER_ID));
+        } finally {
+            es.shutdown();
+            for (int i = 0; i < 8; i++) {
+                stringRedisTemplate.delete(SeckillStockClient.stockKey(VOUCHER_ID, i));
+                stringRedisTemplate.delete(SeckillStockClient.orderKey(VOUCHER_ID, i));
+            }
+            stringRedisTemplate.delete(SECKILL_SHARDS_KEY + VOUCHER_ID);
+        }
+    }
+}